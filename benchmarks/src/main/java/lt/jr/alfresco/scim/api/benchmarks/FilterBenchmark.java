@@ -0,0 +1,72 @@
+package lt.jr.alfresco.scim.api.benchmarks;
+
+import de.captaingoldfish.scim.sdk.common.resources.ServiceProvider;
+import de.captaingoldfish.scim.sdk.common.resources.User;
+import de.captaingoldfish.scim.sdk.server.endpoints.ResourceEndpoint;
+import de.captaingoldfish.scim.sdk.server.endpoints.base.UserEndpointDefinition;
+import de.captaingoldfish.scim.sdk.server.filter.FilterNode;
+import de.captaingoldfish.scim.sdk.server.filter.resources.FilterResourceResolver;
+import de.captaingoldfish.scim.sdk.server.schemas.ResourceType;
+import de.captaingoldfish.scim.sdk.server.utils.RequestUtils;
+import lt.jr.alfresco.scim.api.hadlers.UserHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the in-memory FilterResourceResolver fallback over one page of users, used when a filter can not be
+ * translated into a repository query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class FilterBenchmark {
+
+    @Param({"50", "200"})
+    private int pageSize;
+
+    @Param({
+            "userName sw \"user0001\"",
+            "emails.value co \"example\" and active eq true",
+            "name.familyName eq \"Smith\" or title co \"Engineer\"",
+            "phoneNumbers.value co \"+3706\""})
+    private String filter;
+
+    private ResourceType userResourceType;
+    private FilterNode filterNode;
+    private List<User> users;
+
+    @Setup
+    public void setUp() {
+        InMemoryRepository repository = InMemoryRepository.generate(pageSize, 10, 2);
+        UserHandler userHandler = repository.getUserHandler();
+        ResourceEndpoint resourceEndpoint = new ResourceEndpoint(ServiceProvider.builder().build());
+        userResourceType = resourceEndpoint.registerEndpoint(new UserEndpointDefinition(userHandler));
+        filterNode = RequestUtils.parseFilter(userResourceType, filter);
+        users = userHandler.listResources(1, pageSize, null, null, null, null, null, null).getResources();
+    }
+
+    @Benchmark
+    public FilterNode parseFilter() {
+        return RequestUtils.parseFilter(userResourceType, filter);
+    }
+
+    @Benchmark
+    public List<User> filterPage() {
+        return FilterResourceResolver.filterResources(users, filterNode);
+    }
+}
@@ -0,0 +1,60 @@
+package lt.jr.alfresco.scim.api.benchmarks;
+
+import de.captaingoldfish.scim.sdk.common.resources.Group;
+import lt.jr.alfresco.scim.api.hadlers.GroupHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a Group with its members from the cm:member associations (GroupHandler.getResource) and of
+ * serializing it to SCIM JSON, by member count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class GroupSerializationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int memberCount;
+
+    private GroupHandler groupHandler;
+    private String groupId;
+    private Group group;
+
+    @Setup
+    public void setUp() {
+        InMemoryRepository repository = InMemoryRepository.generate(memberCount, 1, 1);
+        groupHandler = repository.getGroupHandler();
+        groupId = repository.getGroups().get(0).getId();
+        group = getGroup();
+    }
+
+    @Benchmark
+    public Group getGroup() {
+        return groupHandler.getResource(groupId, null, null, null);
+    }
+
+    @Benchmark
+    public String serializeGroup() {
+        return group.toString();
+    }
+
+    @Benchmark
+    public String getAndSerializeGroup() {
+        return getGroup().toString();
+    }
+}
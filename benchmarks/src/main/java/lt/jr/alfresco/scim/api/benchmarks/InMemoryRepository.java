@@ -0,0 +1,579 @@
+package lt.jr.alfresco.scim.api.benchmarks;
+
+import lt.jr.alfresco.scim.api.hadlers.GroupHandler;
+import lt.jr.alfresco.scim.api.hadlers.UserHandler;
+import lt.jr.alfresco.scim.api.metrics.RepositoryCallInterceptor;
+import lt.jr.alfresco.scim.api.metrics.ScimAccessLog;
+import lt.jr.alfresco.scim.api.model.GroupInfo;
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import lt.jr.alfresco.scim.api.services.AdmissionControlServiceImpl;
+import lt.jr.alfresco.scim.api.services.AuthorityResolverImpl;
+import lt.jr.alfresco.scim.api.services.ExternalIdResolver;
+import lt.jr.alfresco.scim.api.services.GroupMembersServiceImpl;
+import lt.jr.alfresco.scim.api.services.PageAssemblyServiceImpl;
+import lt.jr.alfresco.scim.api.services.GroupsService;
+import lt.jr.alfresco.scim.api.services.NodeBulkLoader;
+import lt.jr.alfresco.scim.api.services.ResourceVersionService;
+import lt.jr.alfresco.scim.api.services.UserGroupsServiceImpl;
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.security.authority.AuthorityInfo;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.service.cmr.security.PersonService.PersonInfo;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Deterministic in-memory people and groups behind stub NodeService, PersonService, AuthorityService and
+ * SearchService implementations, wired into the real SCIM handlers and services exactly as in module-context.xml,
+ * including the call counting proxies. Only the service methods used by the SCIM endpoint are implemented,
+ * everything else throws {@link UnsupportedOperationException}. The search stub only evaluates TYPE and
+ * {@code =prefix:property:"value"} terms, which covers the userName, externalId and displayName lookups of
+ * provisioning clients.
+ */
+public final class InMemoryRepository {
+
+    public static final String MODULE_PROPERTIES = "alfresco/module/scim-api/alfresco-global.properties";
+
+    private static final String[] FIRST_NAMES = {"Anna", "Jonas", "Maria", "Peter", "Laura", "Tomas", "Eva", "Marius"};
+    private static final String[] LAST_NAMES = {"Smith", "Kazlauskas", "Jones", "Petrauskas", "Brown", "Miller"};
+    private static final String[] TITLES = {"Engineer", "Manager", "Analyst", "Consultant", "Architect"};
+    private static final Pattern TYPE_TERM = Pattern.compile("TYPE:\"(\\w+):(\\w+)\"");
+    private static final Pattern EQUALS_TERM = Pattern.compile("=(\\w+):(\\w+):\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Map<String, String> NAMESPACES = Map.of(
+            NamespaceService.CONTENT_MODEL_PREFIX, NamespaceService.CONTENT_MODEL_1_0_URI,
+            "scim", ScimModel.URI);
+    private static final Date CREATED = new Date(1577836800000L);
+
+    private final Map<NodeRef, Map<QName, Serializable>> properties = new ConcurrentHashMap<>();
+    private final Map<NodeRef, Set<QName>> aspects = new ConcurrentHashMap<>();
+    /**
+     * Stands in for the id of the transaction that last wrote the node, see ResourceVersionServiceImpl.
+     */
+    private final Map<NodeRef, Long> txnIds = new ConcurrentHashMap<>();
+    private final AtomicLong lastTxnId = new AtomicLong();
+    private final Map<NodeRef, Set<ChildAssociationRef>> members = new ConcurrentHashMap<>();
+    private final Map<NodeRef, Set<ChildAssociationRef>> memberships = new ConcurrentHashMap<>();
+    private final Map<String, NodeRef> authorities = new ConcurrentHashMap<>();
+    private final Map<String, NodeRef> externalIds = new ConcurrentHashMap<>();
+    private final List<NodeRef> people = new CopyOnWriteArrayList<>();
+    private final List<NodeRef> groups = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> callLatencyNanos = new ConcurrentHashMap<>();
+    private final Properties moduleProperties = new Properties();
+    private final List<Class<?>> components = new ArrayList<>();
+
+    private AnnotationConfigApplicationContext context;
+
+    private InMemoryRepository() {
+        try (InputStream defaults = InMemoryRepository.class.getClassLoader().getResourceAsStream(MODULE_PROPERTIES)) {
+            if (defaults != null) {
+                moduleProperties.load(defaults);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + MODULE_PROPERTIES, e);
+        }
+    }
+
+    /**
+     * Creates {@code userCount} people and {@code groupCount} groups. Every user is a member of
+     * {@code groupsPerUser} groups picked with a fixed seed, so runs are reproducible.
+     */
+    public static InMemoryRepository generate(int userCount, int groupCount, int groupsPerUser) {
+        InMemoryRepository repository = new InMemoryRepository();
+        Random random = new Random(42);
+        for (int i = 0; i < groupCount; i++) {
+            repository.createGroup("group" + i, "Group " + i, new UUID(1, i).toString(), "group-external-" + i);
+        }
+        for (int i = 0; i < userCount; i++) {
+            String userName = userName(i);
+            Map<QName, Serializable> props = new HashMap<>();
+            props.put(ContentModel.PROP_USERNAME, userName);
+            props.put(ContentModel.PROP_FIRSTNAME, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+            props.put(ContentModel.PROP_LASTNAME, LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+            props.put(ContentModel.PROP_EMAIL, userName + "@example.com");
+            props.put(ContentModel.PROP_MOBILE, "+3706" + (1000000 + random.nextInt(9000000)));
+            props.put(ContentModel.PROP_TELEPHONE, "+3705" + (1000000 + random.nextInt(9000000)));
+            props.put(ContentModel.PROP_JOBTITLE, TITLES[random.nextInt(TITLES.length)]);
+            props.put(ScimModel.PROP_EXTERNAL_ID, externalId(i));
+            props.put(ScimModel.PROP_LAST_SYNC_DATE, CREATED);
+            NodeRef personRef = repository.createPerson(new UUID(2, i).toString(), props);
+            if (random.nextInt(10) == 0) {
+                repository.aspects.get(personRef).add(ContentModel.ASPECT_PERSON_DISABLED);
+            }
+            for (int g = 0; g < Math.min(groupsPerUser, groupCount); g++) {
+                repository.addMember(repository.groups.get((i + g) % groupCount), personRef);
+            }
+        }
+        return repository;
+    }
+
+    public static String userName(int index) {
+        return String.format("user%06d", index);
+    }
+
+    public static String externalId(int index) {
+        return UUID.nameUUIDFromBytes(userName(index).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    public List<NodeRef> getPeople() {
+        return people;
+    }
+
+    public List<NodeRef> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Delays every call of the service ({@code NodeService}, {@code PersonService}, {@code AuthorityService} or
+     * {@code SearchService}) by the given time. Must be set before the handlers are first used.
+     */
+    public InMemoryRepository withCallLatency(String service, long micros) {
+        callLatencyNanos.put(service, micros * 1000L);
+        return this;
+    }
+
+    /**
+     * Overrides a module property of alfresco-global.properties. Must be set before the handlers are first used.
+     */
+    public InMemoryRepository withProperty(String name, String value) {
+        moduleProperties.setProperty(name, value);
+        return this;
+    }
+
+    /**
+     * Adds annotated components to the context. Must be called before the handlers are first used.
+     */
+    public InMemoryRepository withComponents(Class<?>... componentClasses) {
+        Collections.addAll(components, componentClasses);
+        return this;
+    }
+
+    public UserHandler getUserHandler() {
+        return getBean(UserHandler.class);
+    }
+
+    public GroupHandler getGroupHandler() {
+        return getBean(GroupHandler.class);
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return getContext().getBean(type);
+    }
+
+    public <T> T getBean(String name, Class<T> type) {
+        return getContext().getBean(name, type);
+    }
+
+    /**
+     * Runs callbacks in place, there is no transaction to retry.
+     */
+    public RetryingTransactionHelper getRetryingTransactionHelper() {
+        return new RetryingTransactionHelper() {
+            @Override
+            public <R> R doInTransaction(RetryingTransactionCallback<R> callback, boolean readOnly, boolean requiresNew) {
+                try {
+                    return callback.execute();
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private NodeRef createPerson(String id, Map<QName, Serializable> props) {
+        NodeRef personRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        Map<QName, Serializable> personProps = new ConcurrentHashMap<>();
+        personProps.put(ContentModel.PROP_CREATED, CREATED);
+        personProps.put(ContentModel.PROP_MODIFIED, CREATED);
+        setProperties(personRef, personProps, props);
+        aspects.put(personRef, ConcurrentHashMap.newKeySet());
+        aspects.get(personRef).add(ScimModel.ASPECT_EXTERNAL_AUTHORITY);
+        memberships.putIfAbsent(personRef, ConcurrentHashMap.newKeySet());
+        if (properties.put(personRef, personProps) == null) {
+            people.add(personRef);
+        }
+        authorities.put((String) props.get(ContentModel.PROP_USERNAME), personRef);
+        return personRef;
+    }
+
+    private GroupInfo createGroup(String shortName, String displayName, String id, String externalId) {
+        NodeRef groupRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        String authorityName = "GROUP_" + shortName;
+        Map<QName, Serializable> props = new ConcurrentHashMap<>();
+        props.put(ContentModel.PROP_AUTHORITY_NAME, authorityName);
+        props.put(ContentModel.PROP_AUTHORITY_DISPLAY_NAME, displayName);
+        props.put(ContentModel.PROP_CREATED, CREATED);
+        props.put(ContentModel.PROP_MODIFIED, CREATED);
+        if (externalId != null) {
+            setProperties(groupRef, props, Collections.singletonMap(ScimModel.PROP_EXTERNAL_ID, externalId));
+        }
+        properties.put(groupRef, props);
+        aspects.put(groupRef, ConcurrentHashMap.newKeySet());
+        aspects.get(groupRef).add(ScimModel.ASPECT_EXTERNAL_AUTHORITY);
+        members.put(groupRef, ConcurrentHashMap.newKeySet());
+        memberships.put(groupRef, ConcurrentHashMap.newKeySet());
+        authorities.put(authorityName, groupRef);
+        groups.add(groupRef);
+        return new GroupInfo(shortName, displayName, authorityName);
+    }
+
+    private void addMember(NodeRef groupRef, NodeRef memberRef) {
+        ChildAssociationRef assoc = new ChildAssociationRef(ContentModel.ASSOC_MEMBER, groupRef,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, memberRef.getId()), memberRef);
+        members.get(groupRef).add(assoc);
+        memberships.get(memberRef).add(assoc);
+    }
+
+    private void removeMember(NodeRef groupRef, NodeRef memberRef) {
+        members.get(groupRef).removeIf(assoc -> assoc.getChildRef().equals(memberRef));
+        memberships.get(memberRef).removeIf(assoc -> assoc.getParentRef().equals(groupRef));
+    }
+
+    /**
+     * Applies property changes the way the SCIM behaviours would, keeping scim:externalIdLower in sync.
+     */
+    private void setProperties(NodeRef nodeRef, Map<QName, Serializable> target, Map<QName, Serializable> changes) {
+        changes.forEach((name, value) -> {
+            if (value == null) {
+                target.remove(name);
+            } else {
+                target.put(name, value);
+            }
+        });
+        if (changes.containsKey(ScimModel.PROP_EXTERNAL_ID)) {
+            Optional.ofNullable(ExternalIdResolver.normalize((String) changes.get(ScimModel.PROP_EXTERNAL_ID)))
+                    .ifPresent(normalized -> {
+                        target.put(ScimModel.PROP_EXTERNAL_ID_LOWER, normalized);
+                        externalIds.put(normalized, nodeRef);
+                    });
+        }
+        target.put(ContentModel.PROP_MODIFIED, new Date());
+        txnIds.put(nodeRef, lastTxnId.incrementAndGet());
+    }
+
+    /**
+     * The handlers and the services they depend on, autowired by bean name as in module-context.xml.
+     */
+    private synchronized AnnotationConfigApplicationContext getContext() {
+        if (context == null) {
+            context = new AnnotationConfigApplicationContext();
+            PropertyPlaceholderConfigurer placeholders = new PropertyPlaceholderConfigurer();
+            placeholders.setProperties(moduleProperties);
+            context.addBeanFactoryPostProcessor(placeholders);
+            context.getBeanFactory().registerSingleton("scimNodeService", counted(NodeService.class, createNodeService()));
+            context.getBeanFactory().registerSingleton("scimAuthorityService", counted(AuthorityService.class, createAuthorityService()));
+            context.getBeanFactory().registerSingleton("scimSearchService", counted(SearchService.class, createSearchService()));
+            context.getBeanFactory().registerSingleton("PersonService", createPersonService());
+            context.getBeanFactory().registerSingleton("NamespaceService", unsupported(NamespaceService.class));
+            context.getBeanFactory().registerSingleton("ExternalIdResolver", createExternalIdResolver());
+            context.getBeanFactory().registerSingleton("ResourceVersionService",
+                    (ResourceVersionService) nodeRef -> Optional.ofNullable(properties.get(nodeRef))
+                            .map(props -> Long.toString(((Date) props.get(ContentModel.PROP_MODIFIED)).getTime())));
+            context.getBeanFactory().registerSingleton("NodeBulkLoader", (NodeBulkLoader) nodeRefs -> { });
+            context.getBeanFactory().registerSingleton("GroupsService",
+                    (GroupsService) displayName -> createGroup(UUID.randomUUID().toString(), displayName,
+                            UUID.randomUUID().toString(), null));
+            context.getBeanFactory().registerSingleton("TransactionService", createTransactionService());
+            context.getBeanFactory().registerSingleton("nodeDAO", stub(NodeDAO.class, Map.of("cacheNodes", args -> null)));
+            context.getBeanFactory().registerSingleton("scimAuthorityRefCache", createCache());
+            context.getBeanFactory().registerSingleton("scimUserGroupsCache", createCache());
+            context.getBeanFactory().registerSingleton("scimReplayCache", createCache());
+            context.register(UserHandler.class, GroupHandler.class, UserGroupsServiceImpl.class,
+                    AuthorityResolverImpl.class, GroupMembersServiceImpl.class, ScimAccessLog.class,
+                    AdmissionControlServiceImpl.class, PageAssemblyServiceImpl.class);
+            if (!components.isEmpty()) {
+                context.register(components.toArray(new Class<?>[0]));
+            }
+            context.refresh();
+        }
+        return context;
+    }
+
+    /**
+     * Same call counting proxy as the scim*Service beans of module-context.xml.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T counted(Class<T> type, T target) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setInterfaces(type);
+        proxyFactory.addAdvice(new RepositoryCallInterceptor(type.getSimpleName()));
+        return (T) proxyFactory.getProxy(InMemoryRepository.class.getClassLoader());
+    }
+
+    private NodeService createNodeService() {
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("exists", args -> properties.containsKey((NodeRef) args[0]));
+        methods.put("getNodeStatus", args -> properties.containsKey((NodeRef) args[0])
+                ? new NodeRef.Status(null, (NodeRef) args[0], null, txnIds.getOrDefault((NodeRef) args[0], 0L), false)
+                : null);
+        methods.put("getType", args -> members.containsKey((NodeRef) args[0])
+                ? ContentModel.TYPE_AUTHORITY_CONTAINER
+                : ContentModel.TYPE_PERSON);
+        // like the real service, every call returns a copy
+        methods.put("getProperties", args -> new HashMap<>(properties.get((NodeRef) args[0])));
+        methods.put("getProperty", args -> properties.get((NodeRef) args[0]).get((QName) args[1]));
+        methods.put("getAspects", args -> new HashSet<>(aspects.get((NodeRef) args[0])));
+        methods.put("hasAspect", args -> aspects.get((NodeRef) args[0]).contains((QName) args[1]));
+        methods.put("getChildAssocs", args -> new ArrayList<>(members.getOrDefault((NodeRef) args[0], Collections.emptySet())));
+        methods.put("getParentAssocs", args -> new ArrayList<>(memberships.getOrDefault((NodeRef) args[0], Collections.emptySet())));
+        methods.put("addProperties", args -> {
+            setProperties((NodeRef) args[0], properties.get((NodeRef) args[0]), cast(args[1]));
+            return null;
+        });
+        methods.put("setProperty", args -> {
+            setProperties((NodeRef) args[0], properties.get((NodeRef) args[0]),
+                    Collections.singletonMap((QName) args[1], (Serializable) args[2]));
+            return null;
+        });
+        methods.put("addAspect", args -> aspects.get((NodeRef) args[0]).add((QName) args[1]));
+        methods.put("removeAspect", args -> aspects.get((NodeRef) args[0]).remove((QName) args[1]));
+        return latent("NodeService", stub(NodeService.class, methods));
+    }
+
+    private PersonService createPersonService() {
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("getPeople", args -> {
+            PagingRequest paging = (PagingRequest) args[3];
+            List<NodeRef> page = page(people, paging);
+            return new ListPagingResults<>(page.stream()
+                    .map(personRef -> {
+                        Map<QName, Serializable> props = properties.get(personRef);
+                        return new PersonInfo(personRef, (String) props.get(ContentModel.PROP_USERNAME),
+                                (String) props.get(ContentModel.PROP_FIRSTNAME), (String) props.get(ContentModel.PROP_LASTNAME));
+                    })
+                    .collect(Collectors.toList()),
+                    paging.getSkipCount() + page.size() < people.size(), people.size());
+        });
+        // the id derives from the user name, so repeated creates of the same user do not grow the repository
+        methods.put("createPerson", args -> {
+            Map<QName, Serializable> props = cast(args[0]);
+            String userName = (String) props.get(ContentModel.PROP_USERNAME);
+            return createPerson(UUID.nameUUIDFromBytes(userName.getBytes(StandardCharsets.UTF_8)).toString(), props);
+        });
+        return latent("PersonService", stub(PersonService.class, methods));
+    }
+
+    private AuthorityService createAuthorityService() {
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("getAuthorityNodeRef", args -> authorities.get((String) args[0]));
+        // all generated groups are in the one zone, the search stub ignores the PARENT term
+        methods.put("getZone", args -> new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "zone-" + args[0]));
+        methods.put("addAuthority", args -> {
+            addMember(authorities.get((String) args[0]), authorities.get((String) args[1]));
+            return null;
+        });
+        methods.put("removeAuthority", args -> {
+            removeMember(authorities.get((String) args[0]), authorities.get((String) args[1]));
+            return null;
+        });
+        methods.put("getAuthoritiesInfo", args -> {
+            PagingRequest paging = (PagingRequest) args[5];
+            List<NodeRef> page = page(groups, paging);
+            return new ListPagingResults<>(page.stream()
+                    .map(groupRef -> new AuthorityInfo(null,
+                            (String) properties.get(groupRef).get(ContentModel.PROP_AUTHORITY_DISPLAY_NAME),
+                            (String) properties.get(groupRef).get(ContentModel.PROP_AUTHORITY_NAME)))
+                    .collect(Collectors.toList()),
+                    paging.getSkipCount() + page.size() < groups.size(), groups.size());
+        });
+        return latent("AuthorityService", stub(AuthorityService.class, methods));
+    }
+
+    private SearchService createSearchService() {
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("query", args -> {
+            SearchParameters sp = (SearchParameters) args[0];
+            Matcher type = TYPE_TERM.matcher(sp.getQuery());
+            List<NodeRef> candidates = type.find() && "authorityContainer".equals(type.group(2)) ? groups : people;
+            Map<QName, String> terms = new HashMap<>();
+            Matcher term = EQUALS_TERM.matcher(sp.getQuery());
+            while (term.find()) {
+                terms.put(QName.createQName(NAMESPACES.get(term.group(1)), term.group(2)),
+                        term.group(3).replace("\\\"", "\"").replace("\\\\", "\\"));
+            }
+            List<NodeRef> matches = candidates.stream()
+                    .filter(nodeRef -> terms.entrySet().stream()
+                            .allMatch(t -> t.getValue().equals(properties.get(nodeRef).get(t.getKey()))))
+                    .collect(Collectors.toList());
+            int from = Math.min(sp.getSkipCount(), matches.size());
+            int to = sp.getMaxItems() < 0 ? matches.size() : Math.min(matches.size(), from + sp.getMaxItems());
+            List<NodeRef> page = new ArrayList<>(matches.subList(from, to));
+            return stub(ResultSet.class, Map.of(
+                    "getNodeRefs", resultArgs -> page,
+                    "getNumberFound", resultArgs -> (long) matches.size(),
+                    "length", resultArgs -> page.size(),
+                    "close", resultArgs -> null));
+        });
+        return latent("SearchService", stub(SearchService.class, methods));
+    }
+
+    private ExternalIdResolver createExternalIdResolver() {
+        return new ExternalIdResolver() {
+            @Override
+            public Optional<NodeRef> resolve(String externalId) {
+                return Optional.ofNullable(externalIds.get(ExternalIdResolver.normalize(externalId)));
+            }
+
+            @Override
+            public void evict(String externalId) {
+            }
+        };
+    }
+
+    private TransactionService createTransactionService() {
+        RetryingTransactionHelper helper = getRetryingTransactionHelper();
+        return stub(TransactionService.class, Map.of("getRetryingTransactionHelper", args -> helper));
+    }
+
+    private static List<NodeRef> page(List<NodeRef> nodeRefs, PagingRequest paging) {
+        int from = Math.min(paging.getSkipCount(), nodeRefs.size());
+        int to = Math.min(from + paging.getMaxItems(), nodeRefs.size());
+        return new ArrayList<>(nodeRefs.subList(from, to));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SimpleCache<String, Serializable> createCache() {
+        Map<Object, Object> entries = new ConcurrentHashMap<>();
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        methods.put("get", args -> entries.get(args[0]));
+        methods.put("contains", args -> entries.containsKey(args[0]));
+        methods.put("put", args -> entries.put(args[0], args[1]));
+        methods.put("remove", args -> entries.remove(args[0]));
+        methods.put("clear", args -> {
+            entries.clear();
+            return null;
+        });
+        methods.put("getKeys", args -> entries.keySet());
+        return stub(SimpleCache.class, methods);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<QName, Serializable> cast(Object properties) {
+        return (Map<QName, Serializable>) properties;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T latent(String service, T target) {
+        long nanos = callLatencyNanos.getOrDefault(service, 0L);
+        if (nanos <= 0) {
+            return target;
+        }
+        Class<?> type = target.getClass().getInterfaces()[0];
+        return (T) Proxy.newProxyInstance(InMemoryRepository.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() != Object.class) {
+                        LockSupport.parkNanos(nanos);
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static <T> T unsupported(Class<T> type) {
+        return stub(type, Collections.emptyMap());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return (T) Proxy.newProxyInstance(InMemoryRepository.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return "InMemory" + type.getSimpleName();
+                        }
+                    }
+                    Function<Object[], Object> implementation = methods.get(method.getName());
+                    if (implementation == null) {
+                        throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+                    }
+                    return implementation.apply(args);
+                });
+    }
+
+    private static class ListPagingResults<R> implements PagingResults<R> {
+
+        private final List<R> page;
+        private final boolean hasMoreItems;
+        private final int totalCount;
+
+        ListPagingResults(List<R> page, boolean hasMoreItems, int totalCount) {
+            this.page = page;
+            this.hasMoreItems = hasMoreItems;
+            this.totalCount = totalCount;
+        }
+
+        @Override
+        public List<R> getPage() {
+            return page;
+        }
+
+        @Override
+        public boolean hasMoreItems() {
+            return hasMoreItems;
+        }
+
+        @Override
+        public Pair<Integer, Integer> getTotalResultCount() {
+            return new Pair<>(totalCount, totalCount);
+        }
+
+        @Override
+        public String getQueryExecutionId() {
+            return null;
+        }
+    }
+}
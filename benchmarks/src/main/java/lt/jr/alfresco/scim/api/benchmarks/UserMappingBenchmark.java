@@ -0,0 +1,89 @@
+package lt.jr.alfresco.scim.api.benchmarks;
+
+import de.captaingoldfish.scim.sdk.common.resources.User;
+import de.captaingoldfish.scim.sdk.common.resources.complex.Name;
+import de.captaingoldfish.scim.sdk.common.resources.multicomplex.Email;
+import de.captaingoldfish.scim.sdk.common.resources.multicomplex.PhoneNumber;
+import lt.jr.alfresco.scim.api.hadlers.UserHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping person nodes to SCIM users for one list page (UserHandler.getUsers/getUser), of mapping an
+ * incoming User to repository properties (UserHandler.mapUserProperties through an externalId upsert, which
+ * creates the user on the first invocation and updates it afterwards) and of serializing a page of users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class UserMappingBenchmark {
+
+    @Param({"50", "200"})
+    private int pageSize;
+
+    @Param({"0", "20"})
+    private int groupsPerUser;
+
+    private UserHandler userHandler;
+    private User incomingUser;
+    private List<User> page;
+
+    @Setup
+    public void setUp() {
+        InMemoryRepository repository = InMemoryRepository.generate(pageSize, Math.max(groupsPerUser, 1) * 5, groupsPerUser);
+        userHandler = repository.getUserHandler();
+        incomingUser = User.builder()
+                .userName("new.user")
+                .externalId("4c7b1f0e-6a8e-4d0c-9a57-4a3c1a9f2e10")
+                .name(Name.builder().givenName("New").familyName("User").build())
+                .title("Engineer")
+                .active(true)
+                .emails(Arrays.asList(Email.builder().type("work").value("new.user@example.com").primary(true).build()))
+                .phoneNumbers(Arrays.asList(
+                        PhoneNumber.builder().type("mobile").value("+37060000000").build(),
+                        PhoneNumber.builder().type("work").value("+37050000000").build()))
+                .build();
+        page = listUsers();
+    }
+
+    @Benchmark
+    public List<User> listUsers() {
+        return userHandler.listResources(1, pageSize, null, null, null, null, null, null).getResources();
+    }
+
+    @Benchmark
+    public void listAndSerializeUsers(Blackhole blackhole) {
+        for (User user : listUsers()) {
+            blackhole.consume(user.toString());
+        }
+    }
+
+    @Benchmark
+    public void serializeUsers(Blackhole blackhole) {
+        for (User user : page) {
+            blackhole.consume(user.toString());
+        }
+    }
+
+    @Benchmark
+    public User upsertUser() {
+        return userHandler.createResource(incomingUser, null);
+    }
+}
@@ -0,0 +1,23 @@
+package lt.jr.alfresco.scim.api.benchmarks.load;
+
+import lt.jr.alfresco.scim.api.metrics.ScimMetrics;
+
+import java.util.Map;
+
+/**
+ * Hands the repository calls of the request that just completed on this thread to the load harness.
+ */
+public class HarnessMetrics extends ScimMetrics {
+
+    private static final ThreadLocal<Integer> LAST_REQUEST_CALLS = ThreadLocal.withInitial(() -> 0);
+
+    @Override
+    public void recordRequest(String operation, long millis, int status, Map<String, Integer> repositoryCalls) {
+        super.recordRequest(operation, millis, status, repositoryCalls);
+        LAST_REQUEST_CALLS.set(repositoryCalls.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    static int getLastRequestCalls() {
+        return LAST_REQUEST_CALLS.get();
+    }
+}
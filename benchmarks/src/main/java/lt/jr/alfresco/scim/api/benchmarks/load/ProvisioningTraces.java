@@ -0,0 +1,190 @@
+package lt.jr.alfresco.scim.api.benchmarks.load;
+
+import lt.jr.alfresco.scim.api.benchmarks.InMemoryRepository;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Provisioning traces replayed by {@link ScimLoadHarness}. A trace is a list of lines
+ * {@code METHOD<TAB>path[?query][<TAB>body]} in which {@code {user:N}}, {@code {userId:N}}, {@code {externalId:N}},
+ * {@code {group:N}} and {@code {groupId:N}} refer to the N-th generated user or group (modulo the population), so
+ * recorded client traffic can be anonymized and replayed against any population size. The built-in traces model
+ * what the Azure AD and Okta provisioning clients send during a synchronization cycle.
+ */
+final class ProvisioningTraces {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(user|userId|externalId|group|groupId):(\\d+)}");
+    private static final String PATCH_OP = "urn:ietf:params:scim:api:messages:2.0:PatchOp";
+    private static final String USER_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:User";
+    private static final String GROUP_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:Group";
+    private static final int GROUP_PATCH_CHUNK = 100;
+    private static final int PAGE_SIZE = 100;
+
+    private ProvisioningTraces() {
+    }
+
+    /**
+     * Lines of a built-in trace ({@code azure-ad}, {@code okta}, {@code list-walk} or {@code mixed}), or of the
+     * trace file at the given path.
+     */
+    static List<String> load(String trace, int users, int groups, int groupMembers) throws IOException {
+        switch (trace) {
+            case "azure-ad":
+                return azureAd(users, groups, groupMembers);
+            case "okta":
+                return okta(users, groups, groupMembers);
+            case "list-walk":
+                return listWalk(users, groups);
+            case "mixed":
+                List<String> lines = new ArrayList<>();
+                List<String> azure = azureAd(users, groups, groupMembers);
+                List<String> okta = okta(users, groups, groupMembers);
+                List<String> walk = listWalk(users, groups);
+                for (int i = 0; i < Math.max(azure.size(), Math.max(okta.size(), walk.size())); i++) {
+                    addIfPresent(lines, azure, i);
+                    addIfPresent(lines, okta, i);
+                    addIfPresent(lines, walk, i);
+                }
+                return lines;
+            default:
+                return Files.readAllLines(Path.of(trace), StandardCharsets.UTF_8);
+        }
+    }
+
+    static List<TraceRequest> resolve(List<String> lines, InMemoryRepository repository) {
+        List<TraceRequest> requests = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = replacePlaceholders(line, repository).split("\t", 3);
+            String target = fields[1];
+            int query = target.indexOf('?');
+            requests.add(new TraceRequest(fields[0],
+                    query < 0 ? target : target.substring(0, query),
+                    query < 0 ? null : target.substring(query + 1),
+                    fields.length > 2 ? fields[2] : null));
+        }
+        return requests;
+    }
+
+    /**
+     * Azure AD looks every user up by userName, then patches the changed attributes; new assignments are
+     * posted. Group members are patched in chunks.
+     */
+    private static List<String> azureAd(int users, int groups, int groupMembers) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            lines.add("GET\t/Users?filter=" + encode("userName eq \"") + "{user:" + i + "}" + encode("\""));
+            if (i % 10 == 0) {
+                lines.add("POST\t/Users\t" + user(i));
+            } else {
+                lines.add("PATCH\t/Users/{userId:" + i + "}\t{\"schemas\":[\"" + PATCH_OP + "\"],\"Operations\":["
+                        + "{\"op\":\"Replace\",\"path\":\"title\",\"value\":\"Title " + (i % 7) + "\"},"
+                        + "{\"op\":\"Replace\",\"path\":\"active\",\"value\":\"True\"}]}");
+            }
+        }
+        for (int g = 0; g < groups; g++) {
+            lines.add("GET\t/Groups?filter=" + encode("displayName eq \"Group " + g + "\"") + "&excludedAttributes=members");
+            for (int from = 0; from < groupMembers; from += GROUP_PATCH_CHUNK) {
+                StringBuilder members = new StringBuilder();
+                for (int m = from; m < Math.min(groupMembers, from + GROUP_PATCH_CHUNK); m++) {
+                    members.append(m == from ? "" : ",").append("{\"value\":\"{userId:").append(g * 7 + m).append("}\"}");
+                }
+                lines.add("PATCH\t/Groups/{groupId:" + g + "}\t{\"schemas\":[\"" + PATCH_OP + "\"],\"Operations\":["
+                        + "{\"op\":\"Add\",\"path\":\"members\",\"value\":[" + members + "]}]}");
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Okta replaces users and groups as a whole, groups with their complete member list.
+     */
+    private static List<String> okta(int users, int groups, int groupMembers) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            lines.add("GET\t/Users?filter=" + encode("userName eq \"") + "{user:" + i + "}" + encode("\"") + "&startIndex=1&count=100");
+            lines.add("PUT\t/Users/{userId:" + i + "}\t" + user(i));
+        }
+        for (int g = 0; g < groups; g++) {
+            StringBuilder members = new StringBuilder();
+            for (int m = 0; m < groupMembers; m++) {
+                members.append(m == 0 ? "" : ",").append("{\"value\":\"{userId:").append(g * 13 + m).append("}\"}");
+            }
+            lines.add("PUT\t/Groups/{groupId:" + g + "}\t{\"schemas\":[\"" + GROUP_SCHEMA + "\"],\"id\":\"{groupId:" + g + "}\","
+                    + "\"displayName\":\"Group " + g + "\",\"members\":[" + members + "]}");
+        }
+        return lines;
+    }
+
+    /**
+     * Full index paged walks over users and groups, as done by initial and reconciliation syncs.
+     */
+    private static List<String> listWalk(int users, int groups) {
+        List<String> lines = new ArrayList<>();
+        for (int start = 1; start <= users; start += PAGE_SIZE) {
+            lines.add("GET\t/Users?startIndex=" + start + "&count=" + PAGE_SIZE);
+        }
+        for (int start = 1; start <= groups; start += PAGE_SIZE) {
+            lines.add("GET\t/Groups?startIndex=" + start + "&count=" + PAGE_SIZE + "&excludedAttributes=members");
+        }
+        return lines;
+    }
+
+    private static String user(int i) {
+        return "{\"schemas\":[\"" + USER_SCHEMA + "\"],\"userName\":\"{user:" + i + "}\",\"externalId\":\"{externalId:" + i + "}\","
+                + "\"active\":true,\"title\":\"Title " + (i % 7) + "\",\"name\":{\"givenName\":\"Given" + i + "\",\"familyName\":\"Family" + i + "\"},"
+                + "\"emails\":[{\"type\":\"work\",\"primary\":true,\"value\":\"{user:" + i + "}@example.com\"}],"
+                + "\"phoneNumbers\":[{\"type\":\"mobile\",\"value\":\"+3706" + (1000000 + i) + "\"}]}";
+    }
+
+    private static String replacePlaceholders(String line, InMemoryRepository repository) {
+        Matcher matcher = PLACEHOLDER.matcher(line);
+        StringBuilder resolved = new StringBuilder();
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(2));
+            int userIndex = index % repository.getPeople().size();
+            int groupIndex = index % repository.getGroups().size();
+            String value;
+            switch (matcher.group(1)) {
+                case "user":
+                    value = InMemoryRepository.userName(userIndex);
+                    break;
+                case "userId":
+                    value = repository.getPeople().get(userIndex).getId();
+                    break;
+                case "externalId":
+                    value = InMemoryRepository.externalId(userIndex);
+                    break;
+                case "group":
+                    value = "Group " + groupIndex;
+                    break;
+                default:
+                    value = repository.getGroups().get(groupIndex).getId();
+                    break;
+            }
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static void addIfPresent(List<String> target, List<String> source, int index) {
+        if (index < source.size()) {
+            target.add(source.get(index));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package lt.jr.alfresco.scim.api.benchmarks.load;
+
+import lt.jr.alfresco.scim.api.benchmarks.InMemoryRepository;
+import lt.jr.alfresco.scim.api.hadlers.GroupHandler;
+import lt.jr.alfresco.scim.api.hadlers.UserHandler;
+import lt.jr.alfresco.scim.api.metrics.ScimAccessLog;
+import lt.jr.alfresco.scim.api.services.AdmissionControlService;
+import lt.jr.alfresco.scim.api.services.ExternalIdLockService;
+import lt.jr.alfresco.scim.api.webscripts.ScimEndpointWebScript;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Replays a provisioning trace against {@link ScimEndpointWebScript#execute} in this JVM, on top of
+ * {@link InMemoryRepository} with a configurable latency per repository service call, and reports throughput,
+ * p50/p99 latency and repository calls per request for each concurrency level. Configured with system properties:
+ * <ul>
+ * <li>{@code trace}: azure-ad, okta, list-walk, mixed or the path of a trace file (default mixed)</li>
+ * <li>{@code concurrency}: comma separated client thread counts (default 1,4,16,32)</li>
+ * <li>{@code warmupSeconds}, {@code durationSeconds}: per concurrency level (default 10, 30)</li>
+ * <li>{@code users}, {@code groups}, {@code groupMembers}: population and member list size (default 10000, 200, 1000)</li>
+ * <li>{@code latency.node}, {@code latency.authority}, {@code latency.search}, {@code latency.person}: microseconds
+ * added to every call of the service (default 20, 50, 2000, 50)</li>
+ * </ul>
+ * Module properties of alfresco-global.properties can be overridden with {@code -Dscim.*} system properties.
+ */
+public final class ScimLoadHarness {
+
+    private ScimLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String trace = System.getProperty("trace", "mixed");
+        int[] concurrencyLevels = Arrays.stream(System.getProperty("concurrency", "1,4,16,32").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("warmupSeconds", 10));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("durationSeconds", 30));
+        int users = Integer.getInteger("users", 10000);
+        int groups = Integer.getInteger("groups", 200);
+        int groupMembers = Integer.getInteger("groupMembers", 1000);
+
+        InMemoryRepository repository = InMemoryRepository.generate(users, groups, 3)
+                .withCallLatency("NodeService", Long.getLong("latency.node", 20))
+                .withCallLatency("AuthorityService", Long.getLong("latency.authority", 50))
+                .withCallLatency("SearchService", Long.getLong("latency.search", 2000))
+                .withCallLatency("PersonService", Long.getLong("latency.person", 50))
+                .withComponents(HarnessMetrics.class);
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("scim."))
+                .forEach(name -> repository.withProperty(name, System.getProperty(name)));
+        ScimEndpointWebScript webScript = createWebScript(repository);
+        List<TraceRequest> requests = ProvisioningTraces.resolve(
+                ProvisioningTraces.load(trace, users, groups, groupMembers), repository);
+
+        System.out.printf("trace=%s requests=%d users=%d groups=%d groupMembers=%d%n", trace, requests.size(), users,
+                groups, groupMembers);
+        System.out.printf("%-11s %-14s %9s %10s %9s %9s %10s %7s%n", "concurrency", "operation", "requests", "req/s",
+                "p50 ms", "p99 ms", "calls/req", "errors");
+        for (int concurrency : concurrencyLevels) {
+            run(webScript, requests, concurrency, warmupNanos);
+            Map<String, OperationStats> stats = run(webScript, requests, concurrency, durationNanos);
+            OperationStats total = new OperationStats();
+            stats.values().forEach(total::merge);
+            stats.put("total", total);
+            stats.forEach((operation, operationStats) -> System.out.printf("%-11d %-14s %9d %10.1f %9.2f %9.2f %10.1f %7d%n",
+                    concurrency, operation, operationStats.count,
+                    operationStats.count / (durationNanos / 1e9),
+                    operationStats.percentileMillis(0.50), operationStats.percentileMillis(0.99),
+                    operationStats.count == 0 ? 0.0 : (double) operationStats.repositoryCalls / operationStats.count,
+                    operationStats.errors));
+        }
+        System.exit(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ScimEndpointWebScript createWebScript(InMemoryRepository repository) {
+        ScimEndpointWebScript webScript = new ScimEndpointWebScript();
+        webScript.setUserHandler(repository.getBean(UserHandler.class));
+        webScript.setGroupHandler(repository.getBean(GroupHandler.class));
+        webScript.setScimMetrics(repository.getBean(HarnessMetrics.class));
+        webScript.setScimAccessLog(repository.getBean(ScimAccessLog.class));
+        webScript.setAdmissionControlService(repository.getBean(AdmissionControlService.class));
+        webScript.setExternalIdLockService(new ExternalIdLockService() {
+            @Override
+            public <T> T doWithLocks(Collection<String> externalIds, Supplier<T> work) {
+                return work.get();
+            }
+        });
+        webScript.setRetryingTransactionHelper(repository.getRetryingTransactionHelper());
+        webScript.setCursorSecret("load-harness");
+        webScript.setReplayCache(repository.getBean("scimReplayCache", SimpleCache.class));
+        webScript.afterPropertiesSet();
+        return webScript;
+    }
+
+    /**
+     * Clients replay the trace round robin from a shared position until the time is up.
+     */
+    private static Map<String, OperationStats> run(ScimEndpointWebScript webScript, List<TraceRequest> requests,
+            int concurrency, long durationNanos) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        AtomicLong position = new AtomicLong();
+        long end = System.nanoTime() + durationNanos;
+        List<Future<Map<String, OperationStats>>> results = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            results.add(clients.submit(() -> {
+                Map<String, OperationStats> stats = new TreeMap<>();
+                AuthenticationUtil.setFullyAuthenticatedUser("scim-load");
+                try {
+                    while (System.nanoTime() < end) {
+                        TraceRequest request = requests.get((int) (position.getAndIncrement() % requests.size()));
+                        ServletExchange exchange = new ServletExchange(request);
+                        long start = System.nanoTime();
+                        int status;
+                        try {
+                            webScript.execute(exchange.createRequest(), exchange.createResponse());
+                            status = exchange.getStatus();
+                        } catch (RuntimeException e) {
+                            status = 500;
+                        }
+                        stats.computeIfAbsent(request.getOperation(), operation -> new OperationStats())
+                                .record(System.nanoTime() - start, status, HarnessMetrics.getLastRequestCalls());
+                    }
+                } finally {
+                    AuthenticationUtil.clearCurrentSecurityContext();
+                }
+                return stats;
+            }));
+        }
+        Map<String, OperationStats> merged = new TreeMap<>();
+        for (Future<Map<String, OperationStats>> result : results) {
+            result.get().forEach((operation, stats) -> merged.computeIfAbsent(operation, key -> new OperationStats()).merge(stats));
+        }
+        clients.shutdown();
+        return merged;
+    }
+
+    private static class OperationStats {
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+        private long repositoryCalls;
+
+        void record(long nanos, int status, int calls) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            repositoryCalls += calls;
+            if (status >= 400) {
+                errors++;
+            }
+        }
+
+        void merge(OperationStats other) {
+            if (count + other.count > latencies.length) {
+                latencies = Arrays.copyOf(latencies, count + other.count);
+            }
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+            repositoryCalls += other.repositoryCalls;
+        }
+
+        double percentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)] / 1e6;
+        }
+    }
+}
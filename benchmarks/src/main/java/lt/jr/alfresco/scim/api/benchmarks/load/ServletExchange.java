@@ -0,0 +1,220 @@
+package lt.jr.alfresco.scim.api.benchmarks.load;
+
+import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.servlet.WebScriptServletRequest;
+import org.springframework.extensions.webscripts.servlet.WebScriptServletResponse;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One request/response pair as the web script container would hand it to {@code ScimEndpointWebScript.execute}.
+ * The servlet objects are proxies implementing the handful of methods the endpoint uses; the response body is
+ * counted and discarded.
+ */
+final class ServletExchange {
+
+    static final String CONTEXT = "http://localhost:8080";
+    static final String SERVICE_PATH = "/alfresco/s/jr/scim";
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final TraceRequest traceRequest;
+    private final byte[] body;
+    private int status = 200;
+    private long responseBytes;
+
+    ServletExchange(TraceRequest traceRequest) {
+        this.traceRequest = traceRequest;
+        this.body = traceRequest.getBody() == null ? new byte[0] : traceRequest.getBody().getBytes(StandardCharsets.UTF_8);
+    }
+
+    WebScriptServletRequest createRequest() {
+        Map<String, String> templateVars = new HashMap<>();
+        String[] segments = traceRequest.getPath().substring(1).split("/");
+        templateVars.put("resource", segments[0]);
+        if (segments.length > 1) {
+            templateVars.put("id", segments[1]);
+        }
+        Match match = new Match(segments.length > 1 ? "/{resource}/{id}" : "/{resource}", templateVars, traceRequest.getPath(), null);
+        return new WebScriptServletRequest(null, servletRequest(), match, null);
+    }
+
+    WebScriptServletResponse createResponse() {
+        return new WebScriptServletResponse(null, servletResponse());
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    long getResponseBytes() {
+        return responseBytes;
+    }
+
+    private HttpServletRequest servletRequest() {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Content-Type", "application/scim+json");
+        headers.put("Accept", "application/scim+json");
+        Map<String, String> parameters = parseQuery(traceRequest.getQuery());
+        String uri = SERVICE_PATH + traceRequest.getPath();
+        return (HttpServletRequest) Proxy.newProxyInstance(ServletExchange.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMethod":
+                            return traceRequest.getMethod();
+                        case "getRequestURI":
+                            return uri;
+                        case "getRequestURL":
+                            return new StringBuffer(CONTEXT).append(uri);
+                        case "getQueryString":
+                            return traceRequest.getQuery();
+                        case "getParameter":
+                            return parameters.get((String) args[0]);
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "getHeaderNames":
+                            return Collections.enumeration(headers.keySet());
+                        case "getContentType":
+                            return headers.get("Content-Type");
+                        case "getContentLength":
+                            return body.length;
+                        case "getCharacterEncoding":
+                            return StandardCharsets.UTF_8.name();
+                        case "getInputStream":
+                            return new BodyInputStream(body);
+                        case "getAttribute":
+                            return attributes.get((String) args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private HttpServletResponse servletResponse() {
+        return (HttpServletResponse) Proxy.newProxyInstance(ServletExchange.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setStatus":
+                            status = (Integer) args[0];
+                            return null;
+                        case "getStatus":
+                            return status;
+                        case "setHeader":
+                        case "addHeader":
+                            responseHeaders.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "setContentType":
+                            responseHeaders.put("Content-Type", (String) args[0]);
+                            return null;
+                        case "getHeader":
+                            return responseHeaders.get((String) args[0]);
+                        case "getOutputStream":
+                            return new CountingOutputStream();
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            String name = separator < 0 ? parameter : parameter.substring(0, separator);
+            String value = separator < 0 ? "" : parameter.substring(separator + 1);
+            try {
+                parameters.putIfAbsent(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return parameters;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return type == int.class ? (Object) 0 : null;
+    }
+
+    private static class BodyInputStream extends ServletInputStream {
+
+        private final ByteArrayInputStream body;
+
+        BodyInputStream(byte[] body) {
+            this.body = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int read() {
+            return body.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return body.read(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return body.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class CountingOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+            responseBytes++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            responseBytes += length;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
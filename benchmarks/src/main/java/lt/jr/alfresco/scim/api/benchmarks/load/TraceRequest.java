@@ -0,0 +1,43 @@
+package lt.jr.alfresco.scim.api.benchmarks.load;
+
+/**
+ * One replayed SCIM request. The path is relative to the SCIM base URL, e.g. {@code /Users/<id>}.
+ */
+final class TraceRequest {
+
+    private final String method;
+    private final String path;
+    private final String query;
+    private final String body;
+
+    TraceRequest(String method, String path, String query, String body) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.body = body;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getQuery() {
+        return query;
+    }
+
+    String getBody() {
+        return body;
+    }
+
+    /**
+     * Operation name as reported by the endpoint metrics, e.g. "Users GET".
+     */
+    String getOperation() {
+        int end = path.indexOf('/', 1);
+        return (end < 0 ? path.substring(1) : path.substring(1, end)) + " " + method;
+    }
+}
@@ -1,48 +1,278 @@
 package lt.jr.alfresco.scim.api.hadlers;
 
+import com.google.common.collect.ImmutableSet;
+import de.captaingoldfish.scim.sdk.common.constants.enums.SortOrder;
+import de.captaingoldfish.scim.sdk.common.etag.ETag;
 import de.captaingoldfish.scim.sdk.common.resources.ResourceNode;
+import de.captaingoldfish.scim.sdk.common.resources.complex.Meta;
+import de.captaingoldfish.scim.sdk.common.schemas.SchemaAttribute;
 import de.captaingoldfish.scim.sdk.server.endpoints.ResourceHandler;
+import de.captaingoldfish.scim.sdk.server.filter.FilterNode;
+import de.captaingoldfish.scim.sdk.server.filter.resources.FilterResourceResolver;
+import de.captaingoldfish.scim.sdk.server.response.PartialListResponse;
+import lt.jr.alfresco.scim.api.model.NodeRefPage;
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import lt.jr.alfresco.scim.api.services.ExternalIdResolver;
+import lt.jr.alfresco.scim.api.services.ResourceVersionService;
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
 import org.alfresco.service.cmr.search.ResultSet;
 import org.alfresco.service.cmr.search.SearchParameters;
 import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-
-import static org.apache.commons.lang3.StringUtils.lowerCase;
+import java.util.Set;
+import java.util.function.Function;
 
 public abstract class ExternalAuthorityResourceHandler<T extends ResourceNode> extends ResourceHandler<T>{
 
-    private static final String AUTHORITY_BY_EXTERNAL_ID_CMIS = "SELECT cmis:objectId FROM scim:ExternalAuthority WHERE LOWER(scim:externalId)='%s'";
+    private static final int FILTER_SCAN_BATCH_SIZE = 100;
+    private static final Set<String> ALWAYS_RETURNED = ImmutableSet.of("schemas", "id");
+
     @Autowired
-    @Qualifier("SearchService")
+    @Qualifier("ExternalIdResolver")
+    private ExternalIdResolver externalIdResolver;
+    @Autowired
+    @Qualifier("scimSearchService")
     private SearchService searchService;
+    @Autowired
+    @Qualifier("NamespaceService")
+    private NamespaceService namespaceService;
+    @Autowired
+    @Qualifier("ResourceVersionService")
+    private ResourceVersionService resourceVersionService;
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService syncDateNodeService;
+    @Value("${scim.list.totalCountPages}")
+    private int totalCountPages;
     
     protected Optional<NodeRef> getNodeRefByExternalId(String externalId) {
-        String query = String.format(AUTHORITY_BY_EXTERNAL_ID_CMIS, lowerCase(externalId));
+        return externalIdResolver.resolve(externalId);
+    }
+
+    /**
+     * Current meta.version of the resource, resolved without building it. Empty when the resource does not exist.
+     */
+    public Optional<String> getVersion(String id) {
+        return getVersion(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id));
+    }
+
+    /**
+     * Version of the resource node alone, without the related nodes of {@link #getVersion(String)}. It changes with
+     * every write to the resource's own properties and aspects.
+     */
+    public Optional<String> getNodeVersion(String id) {
+        return resourceVersionService.getVersion(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id));
+    }
+
+    private Optional<String> getVersion(NodeRef nodeRef) {
+        return resourceVersionService.getVersion(nodeRef, this::getVersionedRelatedNodes);
+    }
+
+    /**
+     * Other nodes the representation of the resource depends on, whose changes must change its version.
+     */
+    protected Collection<NodeRef> getVersionedRelatedNodes(NodeRef nodeRef) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Whether the identity provider synchronized the resource, stamping scim:lastSyncDate, within the last
+     * {@code maxAgeMillis}. Requests answered without a write must stamp it otherwise, because reconciliation
+     * treats resources without recent synchronization as removed from the identity provider.
+     */
+    public boolean isSyncedWithin(String id, long maxAgeMillis) {
+        Date lastSyncDate = (Date) syncDateNodeService.getProperty(
+                new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id), ScimModel.PROP_LAST_SYNC_DATE);
+        return lastSyncDate != null && lastSyncDate.getTime() > System.currentTimeMillis() - maxAgeMillis;
+    }
+
+    public void touchLastSyncDate(String id) {
+        syncDateNodeService.setProperty(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id),
+                ScimModel.PROP_LAST_SYNC_DATE, new Date());
+    }
+
+    protected Meta getMeta(NodeRef nodeRef, String resourceType, Map<QName, Serializable> props) {
+        return Meta.builder()
+                .resourceType(resourceType)
+                .created(toInstant((Date) props.get(ContentModel.PROP_CREATED)))
+                .lastModified(toInstant((Date) props.get(ContentModel.PROP_MODIFIED)))
+                .version(getVersion(nodeRef)
+                        .map(version -> ETag.builder().weak(false).tag(version).build())
+                        .orElse(null))
+                .build();
+    }
+
+    private static Instant toInstant(Date date) {
+        return date == null ? null : date.toInstant();
+    }
+
+    protected NodeRefPage searchNodeRefs(String query, QName sortProperty, boolean ascending, int skipCount, int maxItems) {
         SearchParameters sp = new SearchParameters();
         sp.setQuery(query);
-        sp.setLanguage(SearchService.LANGUAGE_CMIS_ALFRESCO);
+        sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        sp.setQueryConsistency(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE);
         sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
-        return executeQuery(sp)
-                .getNodeRefs()
-                .stream()
-                .findAny();
-    }
-
-    private ResultSet executeQuery(SearchParameters sp) {
+        sp.setSkipCount(skipCount);
+        sp.setMaxItems(maxItems);
+        if (sortProperty != null) {
+            sp.addSort("@" + sortProperty, ascending);
+        }
         ResultSet results = null;
         try {
             results = searchService.query(sp);
-            return results;
+            if (results == null) {
+                return new NodeRefPage(Collections.emptyList(), 0);
+            }
+            return new NodeRefPage(results.getNodeRefs(), results.getNumberFound());
         } finally {
             if (results != null) {
                 results.close();
             }
         }
     }
+
+    /**
+     * Page of the resources matching a filter that the repository query only covers in part: the query results are
+     * read in sorted batches and filtered in memory until the page is full, so the page is never short because of
+     * resources dropped by the filter. totalResults is exact when the scan reaches the end of the query results,
+     * otherwise it is the lower bound startIndex + count, which is enough for a client to request the next page.
+     */
+    protected PartialListResponse<T> listFilteredInMemory(String query, QName sortProperty, boolean ascending,
+            long startIndex, int count, FilterNode filter, Function<List<NodeRef>, List<T>> mapper) {
+        long skip = startIndex - 1;
+        int batchSize = Math.max(count, FILTER_SCAN_BATCH_SIZE);
+        List<T> resources = new ArrayList<>(count);
+        long matched = 0;
+        int offset = 0;
+        while (true) {
+            NodeRefPage batch = searchNodeRefs(query, sortProperty, ascending, offset, batchSize);
+            for (T resource : FilterResourceResolver.filterResources(mapper.apply(batch.getNodeRefs()), filter)) {
+                if (matched >= skip + count) {
+                    // one more match than returned, so the client sees that a next page exists
+                    return toListResponse(resources, matched + 1);
+                }
+                if (matched >= skip) {
+                    resources.add(resource);
+                }
+                matched++;
+            }
+            offset += batch.getNodeRefs().size();
+            if (batch.getNodeRefs().size() < batchSize || offset >= batch.getTotalResults()) {
+                return toListResponse(resources, matched);
+            }
+        }
+    }
+
+    /**
+     * Keyset page ordered by a unique, immutable key property: the page starts right after {@code afterKey}
+     * instead of skipping rows, so every page costs the same regardless of its depth and concurrent writes
+     * cannot shift resources between pages.
+     */
+    protected List<NodeRef> searchNodeRefsAfter(String query, QName keyProperty, String afterKey, int maxItems) {
+        String keysetQuery = afterKey == null
+                ? query
+                : query + " AND " + keyProperty.toPrefixString(namespaceService) + ":<\"" + escapePhrase(afterKey) + "\" TO MAX]";
+        return searchNodeRefs(keysetQuery, keyProperty, true, 0, maxItems).getNodeRefs();
+    }
+
+    private static String escapePhrase(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    protected Optional<QName> getSortProperty(SchemaAttribute sortBy, Map<String, QName> sortProperties) {
+        return Optional.ofNullable(sortBy)
+                .map(SchemaAttribute::getScimNodeName)
+                .map(name -> sortProperties.get(name.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Applies the SCIM attributes/excludedAttributes projection rules to a top level attribute name.
+     */
+    protected static boolean isAttributeReturned(String attributeName, List<SchemaAttribute> attributes,
+            List<SchemaAttribute> excludedAttributes) {
+        if (attributes != null && !attributes.isEmpty()) {
+            return attributes.stream().anyMatch(attribute -> isSameAttribute(attributeName, attribute));
+        }
+        return excludedAttributes == null
+                || excludedAttributes.stream().noneMatch(attribute -> isSameAttribute(attributeName, attribute));
+    }
+
+    /**
+     * Removes the top level attributes the projection does not return from a resource that is written without the
+     * SDK, which applies the projection to all other responses. schemas, id and extension objects are kept.
+     */
+    protected static <R extends ResourceNode> R project(R resource, List<SchemaAttribute> attributes,
+            List<SchemaAttribute> excludedAttributes) {
+        List<String> names = new ArrayList<>();
+        resource.fieldNames().forEachRemaining(names::add);
+        for (String name : names) {
+            if (!ALWAYS_RETURNED.contains(name) && !name.startsWith("urn:")
+                    && !isAttributeReturned(name, attributes, excludedAttributes)) {
+                resource.remove(name);
+            }
+        }
+        return resource;
+    }
+
+    private static boolean isSameAttribute(String attributeName, SchemaAttribute attribute) {
+        String name = attribute.getScimNodeName();
+        return name.equalsIgnoreCase(attributeName) || StringUtils.startsWithIgnoreCase(name, attributeName + ".");
+    }
+
+    protected static boolean isAscending(SortOrder sortOrder) {
+        return sortOrder != SortOrder.DESCENDING;
+    }
+
+    /**
+     * Canned query page that counts matching rows only up to {@code totalCountPages} pages past the requested one
+     * instead of counting the whole population on every page. Beyond that {@link #getTotalResults} is the lower
+     * bound skipCount + count * totalCountPages, so clients still see that more pages exist and the exact total is
+     * reported once they page within reach of the end.
+     */
+    protected PagingRequest newPagingRequest(long startIndex, int count) {
+        PagingRequest paging = new PagingRequest((int) startIndex - 1, count);
+        long totalCountMax = startIndex - 1 + (long) Math.max(count, 1) * totalCountPages;
+        paging.setRequestTotalCountMax((int) Math.min(Integer.MAX_VALUE, totalCountMax));
+        return paging;
+    }
+
+    protected static Long getTotalResults(PagingResults<?> results) {
+        Pair<Integer, Integer> totalResultCount = results.getTotalResultCount();
+        return totalResultCount == null ? null : Long.valueOf(totalResultCount.getFirst());
+    }
+
+    protected PartialListResponse<T> toListResponse(List<T> resources, Long totalResults) {
+        if (totalResults == null) {
+            return PartialListResponse.<T>builder()
+                    .resources(resources)
+                    .build();
+        }
+        return PartialListResponse.<T>builder()
+                .resources(resources)
+                .totalResults(totalResults)
+                .build();
+    }
 }
@@ -0,0 +1,158 @@
+package lt.jr.alfresco.scim.api.hadlers;
+
+import de.captaingoldfish.scim.sdk.common.constants.enums.Comparator;
+import de.captaingoldfish.scim.sdk.server.filter.AndExpressionNode;
+import de.captaingoldfish.scim.sdk.server.filter.AttributeExpressionLeaf;
+import de.captaingoldfish.scim.sdk.server.filter.FilterNode;
+import de.captaingoldfish.scim.sdk.server.filter.NotExpressionNode;
+import de.captaingoldfish.scim.sdk.server.filter.OrExpressionNode;
+import lt.jr.alfresco.scim.api.services.ExternalIdResolver;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Translates a SCIM filter tree into an AFTS query so that matching happens in the repository.
+ * Attributes and operators without a repository equivalent are reported as untranslatable, in which case
+ * the caller falls back to {@link de.captaingoldfish.scim.sdk.server.filter.resources.FilterResourceResolver}.
+ */
+class FilterQueryTranslator {
+
+    static final String ACTIVE = "active";
+    static final String EXTERNAL_ID = "externalid";
+
+    private final Map<String, String> fields = new HashMap<>();
+    private String disabledAspect;
+
+    FilterQueryTranslator field(String attribute, String field) {
+        fields.put(attribute.toLowerCase(Locale.ROOT), field);
+        return this;
+    }
+
+    FilterQueryTranslator activeAttribute(String disabledAspect) {
+        this.disabledAspect = disabledAspect;
+        return this;
+    }
+
+    Optional<TranslatedFilter> translate(FilterNode filter) {
+        if (filter == null) {
+            return Optional.empty();
+        }
+        return toQuery(filter);
+    }
+
+    private Optional<TranslatedFilter> toQuery(FilterNode node) {
+        if (node instanceof AndExpressionNode) {
+            AndExpressionNode and = (AndExpressionNode) node;
+            Optional<TranslatedFilter> left = toQuery(and.getLeftNode());
+            Optional<TranslatedFilter> right = toQuery(and.getRightNode());
+            if (left.isPresent() && right.isPresent()) {
+                return Optional.of(new TranslatedFilter("(" + left.get().getQuery() + " AND " + right.get().getQuery() + ")",
+                        left.get().isComplete() && right.get().isComplete()));
+            }
+            return (left.isPresent() ? left : right).map(TranslatedFilter::incomplete);
+        }
+        if (node instanceof OrExpressionNode) {
+            OrExpressionNode or = (OrExpressionNode) node;
+            Optional<TranslatedFilter> left = toQuery(or.getLeftNode());
+            Optional<TranslatedFilter> right = toQuery(or.getRightNode());
+            if (left.isPresent() && right.isPresent() && left.get().isComplete() && right.get().isComplete()) {
+                return Optional.of(new TranslatedFilter("(" + left.get().getQuery() + " OR " + right.get().getQuery() + ")", true));
+            }
+            return Optional.empty();
+        }
+        if (node instanceof NotExpressionNode) {
+            return toQuery(((NotExpressionNode) node).getRightNode())
+                    .filter(TranslatedFilter::isComplete)
+                    .map(inner -> new TranslatedFilter("(ISNODE:T AND NOT " + inner.getQuery() + ")", true));
+        }
+        if (node instanceof AttributeExpressionLeaf) {
+            return toQuery((AttributeExpressionLeaf) node).map(query -> new TranslatedFilter(query, true));
+        }
+        return Optional.empty();
+    }
+
+    private Optional<String> toQuery(AttributeExpressionLeaf leaf) {
+        String attribute = leaf.getSchemaAttribute().getScimNodeName().toLowerCase(Locale.ROOT);
+        Comparator comparator = leaf.getComparator();
+        if (ACTIVE.equals(attribute) && disabledAspect != null) {
+            return toActiveQuery(comparator, leaf.getBooleanValue());
+        }
+        String field = fields.get(attribute);
+        if (field == null) {
+            return Optional.empty();
+        }
+        if (comparator == Comparator.PR) {
+            return Optional.of("ISNOTNULL:\"" + field + "\"");
+        }
+        Optional<String> value = leaf.getStringValue()
+                .map(raw -> EXTERNAL_ID.equals(attribute) ? ExternalIdResolver.normalize(raw) : raw)
+                .filter(StringUtils::isNotEmpty);
+        if (!value.isPresent()) {
+            return Optional.empty();
+        }
+        String escaped = escapePhrase(value.get());
+        switch (comparator) {
+            case EQ:
+                return Optional.of("=" + field + ":\"" + escaped + "\"");
+            case NE:
+                return Optional.of("(ISNODE:T AND NOT =" + field + ":\"" + escaped + "\")");
+            case SW:
+                return Optional.of(field + ":\"" + escaped + "*\"");
+            case EW:
+                return Optional.of(field + ":\"*" + escaped + "\"");
+            case CO:
+                return Optional.of(field + ":\"*" + escaped + "*\"");
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private Optional<String> toActiveQuery(Comparator comparator, Optional<Boolean> value) {
+        if (comparator == Comparator.PR) {
+            return Optional.of("ISNODE:T");
+        }
+        if (!value.isPresent() || (comparator != Comparator.EQ && comparator != Comparator.NE)) {
+            return Optional.empty();
+        }
+        boolean active = value.get() == (comparator == Comparator.EQ);
+        String disabled = "ASPECT:\"" + disabledAspect + "\"";
+        return Optional.of(active ? "(ISNODE:T AND NOT " + disabled + ")" : disabled);
+    }
+
+    static String escapePhrase(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("*", "\\*")
+                .replace("?", "\\?");
+    }
+
+    static class TranslatedFilter {
+
+        private final String query;
+        private final boolean complete;
+
+        TranslatedFilter(String query, boolean complete) {
+            this.query = query;
+            this.complete = complete;
+        }
+
+        /**
+         * AFTS query fragment matching a superset of the filter when not {@link #isComplete() complete}.
+         */
+        String getQuery() {
+            return query;
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+
+        TranslatedFilter incomplete() {
+            return new TranslatedFilter(query, false);
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package lt.jr.alfresco.scim.api.hadlers;
 
+import com.google.common.collect.ImmutableMap;
 import de.captaingoldfish.scim.sdk.common.constants.enums.SortOrder;
 import de.captaingoldfish.scim.sdk.common.resources.Group;
 import de.captaingoldfish.scim.sdk.common.resources.multicomplex.Member;
 import de.captaingoldfish.scim.sdk.common.schemas.SchemaAttribute;
 import de.captaingoldfish.scim.sdk.server.endpoints.authorize.Authorization;
 import de.captaingoldfish.scim.sdk.server.filter.FilterNode;
-import de.captaingoldfish.scim.sdk.server.filter.resources.FilterResourceResolver;
 import de.captaingoldfish.scim.sdk.server.response.PartialListResponse;
+import lt.jr.alfresco.scim.api.hadlers.FilterQueryTranslator.TranslatedFilter;
 import lt.jr.alfresco.scim.api.model.GroupInfo;
+import lt.jr.alfresco.scim.api.model.KeysetPage;
+import lt.jr.alfresco.scim.api.model.MembersPatch;
+import lt.jr.alfresco.scim.api.model.NodeRefPage;
 import lt.jr.alfresco.scim.api.model.ScimModel;
+import lt.jr.alfresco.scim.api.services.AuthorityResolver;
+import lt.jr.alfresco.scim.api.services.GroupMembersService;
 import lt.jr.alfresco.scim.api.services.GroupsService;
+import lt.jr.alfresco.scim.api.services.NodeBulkLoader;
+import lt.jr.alfresco.scim.api.services.PageAssemblyService;
 import org.alfresco.model.ContentModel;
 import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
 import org.alfresco.repo.security.authority.AuthorityInfo;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -20,31 +29,57 @@ import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.service.cmr.security.AuthorityService;
 import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.io.Serializable;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 @Component("GroupHandler")
 public class GroupHandler extends ExternalAuthorityResourceHandler<Group> {
     
     private final Logger logger = LoggerFactory.getLogger(GroupHandler.class);
+
+    private static final String GROUP_RESOURCE_TYPE = "Group";
+    private static final String MEMBERS_ATTRIBUTE = "members";
+    private static final String GROUP_QUERY = "TYPE:\"cm:authorityContainer\"";
+    private static final FilterQueryTranslator FILTER_TRANSLATOR = new FilterQueryTranslator()
+            .field("displayName", "cm:authorityDisplayName")
+            .field("externalId", "scim:externalIdLower");
+    private static final Map<String, QName> SORT_PROPERTIES = ImmutableMap.of(
+            "displayname", ContentModel.PROP_AUTHORITY_DISPLAY_NAME,
+            "meta.lastmodified", ContentModel.PROP_MODIFIED);
     
     @Autowired
-    @Qualifier("AuthorityService")
+    @Qualifier("scimAuthorityService")
     private AuthorityService authorityService;
     @Autowired
     @Qualifier("GroupsService")
     private GroupsService groupsService;
     @Autowired
-    @Qualifier("NodeService")
+    @Qualifier("scimNodeService")
     private NodeService nodeService;
+    @Autowired
+    @Qualifier("AuthorityResolver")
+    private AuthorityResolver authorityResolver;
+    @Autowired
+    @Qualifier("GroupMembersService")
+    private GroupMembersService groupMembersService;
+    @Autowired
+    @Qualifier("NodeBulkLoader")
+    private NodeBulkLoader nodeBulkLoader;
+    @Autowired
+    @Qualifier("PageAssemblyService")
+    private PageAssemblyService pageAssemblyService;
+    private volatile String zoneGroupQuery;
 
     @Override
     public Group createResource(Group group, Authorization authorization) {
@@ -58,7 +93,7 @@ public class GroupHandler extends ExternalAuthorityResourceHandler<Group> {
         String groupDisplayName = group.getDisplayName().get();
         logger.info("Creating group {}", groupDisplayName);
         GroupInfo groupInfo = groupsService.createGroup(groupDisplayName);
-        NodeRef newGroupRef = authorityService.getAuthorityNodeRef(groupInfo.getFullName());
+        NodeRef newGroupRef = authorityResolver.getAuthorityNodeRef(groupInfo.getFullName());
         group.setId(newGroupRef.getId());
         logger.info("Group {} id: {}", groupDisplayName, newGroupRef.getId());
         updateResource(group, authorization);
@@ -71,33 +106,71 @@ public class GroupHandler extends ExternalAuthorityResourceHandler<Group> {
         if(!nodeService.exists(groupRef)) {
             return null;
         }
-        String displayName = (String) nodeService.getProperty(groupRef, ContentModel.PROP_AUTHORITY_DISPLAY_NAME);
-        Group group = new Group();
-        group.setId(id);
-        group.setDisplayName(displayName);
-        
-        String groupName = getAuthorityName(group.getId().get());
-        List<Member> members = authorityService.getContainedAuthorities(null, groupName, true)
-            .stream()
-            .map(this::getMember)
-            .collect(Collectors.toList());
-        group.setMembers(members);
-        
+        Group group = getGroup(groupRef);
+        if (isAttributeReturned(MEMBERS_ATTRIBUTE, attributes, excludedAttributes)) {
+            group.setMembers(getMembers(groupRef));
+        }
         return group;
     }
 
     @Override
     public PartialListResponse<Group> listResources(long startIndex, int count, FilterNode filter, SchemaAttribute sortBy, SortOrder sortOrder,
             List<SchemaAttribute> attributes, List<SchemaAttribute> excludedAttributes, Authorization authorization) {
-        PagingRequest paging = new PagingRequest((int) startIndex - 1, count);
-        List<Group> groups = authorityService.getAuthoritiesInfo(AuthorityType.GROUP, AuthorityService.ZONE_APP_DEFAULT, null, null, true, paging)
-                .getPage()
+        Optional<QName> sortProperty = getSortProperty(sortBy, SORT_PROPERTIES);
+        boolean ascending = isAscending(sortOrder);
+        Optional<TranslatedFilter> repositoryFilter = FILTER_TRANSLATOR.translate(filter);
+        String query = repositoryFilter.map(f -> getGroupQuery() + " AND " + f.getQuery()).orElse(getGroupQuery());
+        if (filter != null && !repositoryFilter.map(TranslatedFilter::isComplete).orElse(false)) {
+            // the scan is sorted by the unique authority name when no sortBy is given so that its batches do not overlap
+            return listFilteredInMemory(query, sortProperty.orElse(ContentModel.PROP_AUTHORITY_NAME), ascending,
+                    startIndex, count, filter, this::getGroups);
+        }
+        // the authorities canned query can only sort by name properties, everything else is sorted by the search
+        if (repositoryFilter.isPresent() || sortProperty.filter(ContentModel.PROP_MODIFIED::equals).isPresent()) {
+            NodeRefPage page = searchNodeRefs(query, sortProperty.orElse(null), ascending, (int) startIndex - 1, count);
+            List<Group> groups = getGroups(page.getNodeRefs());
+            return toListResponse(groups, page.getTotalResults());
+        }
+        PagingRequest paging = newPagingRequest(startIndex, count);
+        String cannedQuerySortBy = sortProperty.map(property -> "displayName").orElse(null);
+        PagingResults<AuthorityInfo> authorities = authorityService.getAuthoritiesInfo(AuthorityType.GROUP,
+                AuthorityService.ZONE_APP_DEFAULT, null, cannedQuerySortBy, ascending, paging);
+        // canned query rows only carry the names, the groups are built from their preloaded nodes like on the
+        // search path so that externalId and meta match GET /Groups/{id}
+        List<Group> groups = getGroups(authorities.getPage()
                 .stream()
-                .map(this::getGroup)
-                .collect(Collectors.toList());
-        return PartialListResponse.<Group>builder()
-                .resources(FilterResourceResolver.filterResources(groups, filter))
-                .build();
+                .map(group -> authorityResolver.getAuthorityNodeRef(group.getAuthorityName()))
+                .collect(Collectors.toList()));
+        return toListResponse(groups, getTotalResults(authorities));
+    }
+
+    /**
+     * Cursor pagination with the attributes/excludedAttributes projection applied, as the SDK does for offset pages.
+     */
+    public KeysetPage<Group> listResourcesAfter(String afterAuthorityName, int count, List<SchemaAttribute> attributes,
+            List<SchemaAttribute> excludedAttributes) {
+        KeysetPage<Group> page = listResourcesAfter(afterAuthorityName, count,
+                isAttributeReturned(MEMBERS_ATTRIBUTE, attributes, excludedAttributes));
+        page.getResources().forEach(group -> project(group, attributes, excludedAttributes));
+        return page;
+    }
+
+    /**
+     * Cursor pagination: groups ordered by cm:authorityName, starting after {@code afterAuthorityName}.
+     */
+    public KeysetPage<Group> listResourcesAfter(String afterAuthorityName, int count, boolean includeMembers) {
+        List<NodeRef> groupRefs = searchNodeRefsAfter(getGroupQuery(), ContentModel.PROP_AUTHORITY_NAME, afterAuthorityName, count + 1);
+        boolean hasMore = groupRefs.size() > count;
+        List<NodeRef> pageRefs = hasMore ? groupRefs.subList(0, count) : groupRefs;
+        List<Group> groups = pageAssemblyService.assemble(pageRefs, nodeBulkLoader::preload, groupRef -> {
+            Group group = getGroup(groupRef);
+            if (includeMembers) {
+                group.setMembers(getMembers(groupRef));
+            }
+            return group;
+        });
+        String nextKey = hasMore ? authorityResolver.getAuthorityName(pageRefs.get(pageRefs.size() - 1)) : null;
+        return new KeysetPage<>(groups, nextKey);
     }
 
     @Override
@@ -108,7 +181,9 @@ public class GroupHandler extends ExternalAuthorityResourceHandler<Group> {
             nodeService.setProperty(groupRef, ContentModel.PROP_AUTHORITY_DISPLAY_NAME, displayName);    
         });
         group.getExternalId().ifPresent(externalId -> nodeService.setProperty(groupRef, ScimModel.PROP_EXTERNAL_ID, externalId));
-        updateMembers(group);
+        nodeService.setProperty(groupRef, ScimModel.PROP_LAST_SYNC_DATE, new Date());
+        updateMembers(groupRef, group);
+        group.setMeta(getMeta(groupRef, GROUP_RESOURCE_TYPE, nodeService.getProperties(groupRef)));
         return group;
     }
 
@@ -118,59 +193,83 @@ public class GroupHandler extends ExternalAuthorityResourceHandler<Group> {
         String groupName = (String) nodeService.getProperty(groupRef, ContentModel.PROP_AUTHORITY_NAME);
         logger.info("Removing group {} {}", groupName, id);
         authorityService.deleteAuthority(groupName);
+        authorityResolver.evict(groupRef, groupName);
     }
     
-    private void updateMembers(Group group) {
-        String groupName = getAuthorityName(group.getId().get());
-        logger.info("Updating group {} members: {}", group.getId().get(), group.getMembers().stream().map(Object::toString).collect(Collectors.joining()));
-        Set<String> currentMembers = group.getMembers().stream()
+    /**
+     * Applies add/remove/replace operations on members directly, without materializing the group.
+     * Returns false when the group does not exist or the id is not a group.
+     */
+    public boolean patchMembers(String id, MembersPatch patch) {
+        NodeRef groupRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        if(!nodeService.exists(groupRef) || !ContentModel.TYPE_AUTHORITY_CONTAINER.equals(nodeService.getType(groupRef))) {
+            return false;
+        }
+        logger.info("Patching group {} members", id);
+        for (MembersPatch.Operation operation : patch.getOperations()) {
+            switch (operation.getType()) {
+                case ADD:
+                    groupMembersService.addMembers(groupRef, operation.getMemberIds());
+                    break;
+                case REMOVE:
+                    groupMembersService.removeMembers(groupRef, operation.getMemberIds());
+                    break;
+                case REMOVE_ALL:
+                case REPLACE:
+                    groupMembersService.replaceMembers(groupRef, operation.getMemberIds());
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void updateMembers(NodeRef groupRef, Group group) {
+        List<String> memberIds = group.getMembers().stream()
             .map(member -> member.getValue())
             .filter(Optional::isPresent)
             .map(Optional::get)
-            .map(this::getAuthorityName)
-            .collect(Collectors.toSet());
-        
-        Set<String> oldMembers = authorityService.getContainedAuthorities(null, groupName, true);
-        oldMembers.stream()
-            .filter(member -> !currentMembers.contains(member))
-            .forEach(member -> this.removeMember(groupName, member));
-        
-        currentMembers.stream()
-            .filter(member -> !oldMembers.contains(member))
-            .forEach(memberName ->
-                addMember(groupName, memberName)
-            );
-    }
-    
-    private void removeMember(String groupName, String member) {
-        logger.info("Removing member \"{}\" from group {}", member, groupName);
-        authorityService.removeAuthority(groupName, member);
-    }
-    
-    private void addMember(String groupName, String member) {
-        logger.info("Adding member \"{}\" from group {}", member, groupName);
-        authorityService.addAuthority(groupName, member);
+            .collect(Collectors.toList());
+        groupMembersService.replaceMembers(groupRef, memberIds);
     }
     
-    private String getAuthorityName(String id) {
-        NodeRef authRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
-        QName authType = nodeService.getType(authRef);
-        if(ContentModel.TYPE_AUTHORITY_CONTAINER.equals(authType)) {
-            return (String) nodeService.getProperty(authRef, ContentModel.PROP_AUTHORITY_NAME);
+    /**
+     * Groups of the APP.DEFAULT zone, the same set the authorities canned query lists.
+     */
+    private String getGroupQuery() {
+        if (zoneGroupQuery == null) {
+            NodeRef zoneRef = authorityService.getZone(AuthorityService.ZONE_APP_DEFAULT);
+            if (zoneRef == null) {
+                return GROUP_QUERY;
+            }
+            zoneGroupQuery = GROUP_QUERY + " AND PARENT:\"" + zoneRef + "\"";
         }
-        return (String) nodeService.getProperty(authRef, ContentModel.PROP_USERNAME);
+        return zoneGroupQuery;
     }
-    
-    private Group getGroup(AuthorityInfo group) {
+
+    private Group getGroup(NodeRef groupRef) {
+        Map<QName, Serializable> props = nodeService.getProperties(groupRef);
         return Group.builder()
-                .id(authorityService.getAuthorityNodeRef(group.getAuthorityName()).getId())
-                .displayName(group.getAuthorityDisplayName())
+                .id(groupRef.getId())
+                .externalId((String) props.get(ScimModel.PROP_EXTERNAL_ID))
+                .displayName((String) props.get(ContentModel.PROP_AUTHORITY_DISPLAY_NAME))
+                .meta(getMeta(groupRef, GROUP_RESOURCE_TYPE, props))
                 .build();
     }
+
+    private List<Group> getGroups(List<NodeRef> groupRefs) {
+        return pageAssemblyService.assemble(groupRefs, nodeBulkLoader::preload, this::getGroup);
+    }
     
-    private Member getMember(String authorityName) {
-        return Member.builder()
-            .value(authorityService.getAuthorityNodeRef(authorityName).getId())
-            .build();
+    /**
+     * Members are the cm:member children of the group node, so a single child association query yields
+     * all member ids without resolving authority names one by one.
+     */
+    private List<Member> getMembers(NodeRef groupRef) {
+        return nodeService.getChildAssocs(groupRef, ContentModel.ASSOC_MEMBER, RegexQNamePattern.MATCH_ALL, false)
+            .stream()
+            .map(assoc -> Member.builder()
+                .value(assoc.getChildRef().getId())
+                .build())
+            .collect(Collectors.toList());
     }
 }
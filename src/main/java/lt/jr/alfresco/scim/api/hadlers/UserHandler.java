@@ -1,26 +1,35 @@
 package lt.jr.alfresco.scim.api.hadlers;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import de.captaingoldfish.scim.sdk.common.constants.enums.SortOrder;
 import de.captaingoldfish.scim.sdk.common.resources.User;
 import de.captaingoldfish.scim.sdk.common.resources.complex.Name;
 import de.captaingoldfish.scim.sdk.common.resources.multicomplex.Email;
+import de.captaingoldfish.scim.sdk.common.resources.multicomplex.GroupNode;
 import de.captaingoldfish.scim.sdk.common.resources.multicomplex.MultiComplexNode;
 import de.captaingoldfish.scim.sdk.common.resources.multicomplex.PhoneNumber;
 import de.captaingoldfish.scim.sdk.common.schemas.SchemaAttribute;
 import de.captaingoldfish.scim.sdk.server.endpoints.authorize.Authorization;
 import de.captaingoldfish.scim.sdk.server.filter.FilterNode;
-import de.captaingoldfish.scim.sdk.server.filter.resources.FilterResourceResolver;
 import de.captaingoldfish.scim.sdk.server.response.PartialListResponse;
+import lt.jr.alfresco.scim.api.hadlers.FilterQueryTranslator.TranslatedFilter;
+import lt.jr.alfresco.scim.api.model.KeysetPage;
+import lt.jr.alfresco.scim.api.model.NodeRefPage;
 import lt.jr.alfresco.scim.api.model.ScimModel;
+import lt.jr.alfresco.scim.api.services.NodeBulkLoader;
+import lt.jr.alfresco.scim.api.services.PageAssemblyService;
+import lt.jr.alfresco.scim.api.services.UserGroupsService;
 import org.alfresco.model.ContentModel;
 import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.service.cmr.security.PersonService;
 import org.alfresco.service.cmr.security.PersonService.PersonInfo;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,13 +44,39 @@ import java.util.stream.Collectors;
 public class UserHandler extends ExternalAuthorityResourceHandler<User>{
     
     private final Logger logger = LoggerFactory.getLogger(UserHandler.class);
+
+    private static final String USER_RESOURCE_TYPE = "User";
+    private static final String PERSON_QUERY = "TYPE:\"cm:person\"";
+    private static final FilterQueryTranslator FILTER_TRANSLATOR = new FilterQueryTranslator()
+            .field("userName", "cm:userName")
+            .field("emails", "cm:email")
+            .field("emails.value", "cm:email")
+            .field("externalId", "scim:externalIdLower")
+            .field("name.familyName", "cm:lastName")
+            .field("name.givenName", "cm:firstName")
+            .field("title", "cm:jobtitle")
+            .activeAttribute("cm:personDisabled");
+    private static final Map<String, QName> SORT_PROPERTIES = ImmutableMap.of(
+            "username", ContentModel.PROP_USERNAME,
+            "name.familyname", ContentModel.PROP_LASTNAME,
+            "name.givenname", ContentModel.PROP_FIRSTNAME,
+            "meta.lastmodified", ContentModel.PROP_MODIFIED);
     
     @Autowired
     @Qualifier("PersonService")
     private PersonService personService;
     @Autowired
-    @Qualifier("NodeService")
+    @Qualifier("scimNodeService")
     private NodeService nodeService;
+    @Autowired
+    @Qualifier("NodeBulkLoader")
+    private NodeBulkLoader nodeBulkLoader;
+    @Autowired
+    @Qualifier("UserGroupsService")
+    private UserGroupsService userGroupsService;
+    @Autowired
+    @Qualifier("PageAssemblyService")
+    private PageAssemblyService pageAssemblyService;
 
     @Override
     public User createResource(User user, Authorization authorization) {
@@ -52,32 +87,77 @@ public class UserHandler extends ExternalAuthorityResourceHandler<User>{
             updateResource(user, authorization);
             return user;
         }
-        logger.info("Creating user {}", user.getUserName().get());
+        logger.debug("Creating user {}", user.getUserName().get());
         NodeRef newUserRef = personService.createPerson(mapUserProperties(user));
-        logger.info("User {} id: {}", user.getUserName().get(), newUserRef.getId());
+        logger.debug("User {} id: {}", user.getUserName().get(), newUserRef.getId());
         user.setId(newUserRef.getId());
         updateUserAspects(newUserRef, user);
+        user.setMeta(getMeta(newUserRef, USER_RESOURCE_TYPE, nodeService.getProperties(newUserRef)));
         return user;
     }
 
     @Override
     public User getResource(String id, Authorization authorization, List<SchemaAttribute> attributes, List<SchemaAttribute> excludedAttributes) {
-        return getUser(id);
+        NodeRef personRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        if(!nodeService.exists(personRef)) {
+            return null;
+        }
+        return getUser(personRef, new UserProjection(attributes, excludedAttributes));
     }
 
     @Override
     public PartialListResponse<User> listResources(long startIndex, int count, FilterNode filter, SchemaAttribute sortBy, SortOrder sortOrder,
             List<SchemaAttribute> attributes, List<SchemaAttribute> excludedAttributes, Authorization authorization) {
        
-        PagingRequest paging = new PagingRequest((int) startIndex - 1, count);
-        List<User> users = personService.getPeople(null, null, null, paging)
-                .getPage()
+        Optional<QName> sortProperty = getSortProperty(sortBy, SORT_PROPERTIES);
+        boolean ascending = isAscending(sortOrder);
+        Optional<TranslatedFilter> repositoryFilter = FILTER_TRANSLATOR.translate(filter);
+        String query = repositoryFilter.map(f -> PERSON_QUERY + " AND " + f.getQuery()).orElse(PERSON_QUERY);
+        if (filter != null && !repositoryFilter.map(TranslatedFilter::isComplete).orElse(false)) {
+            // the in-memory filter may need any attribute, so the projection only applies when it is not used;
+            // the scan is sorted by the unique user name when no sortBy is given so that its batches do not overlap
+            return listFilteredInMemory(query, sortProperty.orElse(ContentModel.PROP_USERNAME), ascending, startIndex,
+                    count, filter, personRefs -> getUsers(personRefs, UserProjection.ALL));
+        }
+        // the people canned query can only sort by name properties, everything else is sorted by the search
+        if (repositoryFilter.isPresent() || sortProperty.filter(ContentModel.PROP_MODIFIED::equals).isPresent()) {
+            NodeRefPage page = searchNodeRefs(query, sortProperty.orElse(null), ascending, (int) startIndex - 1, count);
+            List<User> users = getUsers(page.getNodeRefs(), new UserProjection(attributes, excludedAttributes));
+            return toListResponse(users, page.getTotalResults());
+        }
+        PagingRequest paging = newPagingRequest(startIndex, count);
+        List<Pair<QName, Boolean>> sortProps = sortProperty
+                .map(property -> Collections.singletonList(new Pair<>(property, ascending)))
+                .orElse(null);
+        PagingResults<PersonInfo> people = personService.getPeople(null, null, sortProps, paging);
+        List<NodeRef> personRefs = people.getPage()
                 .stream()
-                .map(this::getUser)
+                .map(PersonInfo::getNodeRef)
                 .collect(Collectors.toList());
-        return PartialListResponse.<User>builder()
-                .resources(FilterResourceResolver.filterResources(users, filter))
-                .build();
+        List<User> users = getUsers(personRefs, new UserProjection(attributes, excludedAttributes));
+        return toListResponse(users, getTotalResults(people));
+    }
+
+    /**
+     * Cursor pagination: users ordered by cm:userName, starting after {@code afterUserName}.
+     */
+    public KeysetPage<User> listResourcesAfter(String afterUserName, int count) {
+        return listResourcesAfter(afterUserName, count, null, null);
+    }
+
+    /**
+     * Cursor pagination with the attributes/excludedAttributes projection applied, as the SDK does for offset pages.
+     */
+    public KeysetPage<User> listResourcesAfter(String afterUserName, int count, List<SchemaAttribute> attributes,
+            List<SchemaAttribute> excludedAttributes) {
+        List<NodeRef> personRefs = searchNodeRefsAfter(PERSON_QUERY, ContentModel.PROP_USERNAME, afterUserName, count + 1);
+        boolean hasMore = personRefs.size() > count;
+        List<NodeRef> pageRefs = hasMore ? personRefs.subList(0, count) : personRefs;
+        List<User> users = getUsers(pageRefs, new UserProjection(attributes, excludedAttributes));
+        // the key is read before the projection, which may leave userName out
+        String nextKey = hasMore ? users.get(users.size() - 1).getUserName().orElse(null) : null;
+        users.forEach(user -> project(user, attributes, excludedAttributes));
+        return new KeysetPage<>(users, nextKey);
     }
 
     @Override
@@ -88,6 +168,7 @@ public class UserHandler extends ExternalAuthorityResourceHandler<User>{
         props.remove(ContentModel.PROP_USERNAME);
         nodeService.addProperties(userRef, props);
         updateUserAspects(userRef, user);
+        user.setMeta(getMeta(userRef, USER_RESOURCE_TYPE, nodeService.getProperties(userRef)));
         return user;
     }
 
@@ -149,46 +230,105 @@ public class UserHandler extends ExternalAuthorityResourceHandler<User>{
         return props;
     }
     
-    private User getUser(String id) {
-        NodeRef personRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
-        if(!nodeService.exists(personRef)) {
-            return null;
-        }
-        PersonInfo person = personService.getPerson(personRef);
-        return getUser(person);
+    /**
+     * Loads the nodes, properties and aspects of the whole page in one bulk operation before mapping, so
+     * every per-user read below is served from the node cache. In parallel mode each chunk of the page is
+     * preloaded by the worker mapping it.
+     */
+    private List<User> getUsers(List<NodeRef> personRefs, UserProjection projection) {
+        return pageAssemblyService.assemble(personRefs, nodeBulkLoader::preload,
+                personRef -> getUser(personRef, projection));
     }
-    
-    private User getUser(PersonInfo person) {
-        NodeRef personRef = person.getNodeRef();
+
+    private User getUser(NodeRef personRef, UserProjection projection) {
         Map<QName, Serializable> props = nodeService.getProperties(personRef);
-        String email = (String) props.get(ContentModel.PROP_EMAIL);
-        String mobile = (String) props.get(ContentModel.PROP_MOBILE);
-        String phone = (String) props.get(ContentModel.PROP_TELEPHONE);
-        return User.builder()
+        User user = User.builder()
                 .id(personRef.getId())
-                .name(Name.builder()
-                        .givenName(person.getFirstName())
-                        .familyName(person.getLastName())
-                        .build())
-                .userName(person.getUserName())
-                .emails(ImmutableList.of(
-                            Email.builder()
-                            .type("work")
-                            .value(email)
-                            .build()))
-                .phoneNumbers(ImmutableList.of(
-                        PhoneNumber.builder()
-                            .type("mobile")
-                            .value(mobile)
-                            .build(),
-                        PhoneNumber.builder()
-                            .type("work")
-                            .value(phone)
-                            .build()
-                        ))
-                .title((String) props.get(ContentModel.PROP_JOBTITLE))
-                .active(!nodeService.hasAspect(personRef, ContentModel.ASPECT_PERSON_DISABLED))
+                .userName((String) props.get(ContentModel.PROP_USERNAME))
+                .externalId((String) props.get(ScimModel.PROP_EXTERNAL_ID))
                 .build();
+        if (projection.name) {
+            user.setName(Name.builder()
+                    .givenName((String) props.get(ContentModel.PROP_FIRSTNAME))
+                    .familyName((String) props.get(ContentModel.PROP_LASTNAME))
+                    .build());
+        }
+        if (projection.emails) {
+            user.setEmails(ImmutableList.of(
+                    Email.builder()
+                        .type("work")
+                        .value((String) props.get(ContentModel.PROP_EMAIL))
+                        .build()));
+        }
+        if (projection.phoneNumbers) {
+            user.setPhoneNumbers(ImmutableList.of(
+                    PhoneNumber.builder()
+                        .type("mobile")
+                        .value((String) props.get(ContentModel.PROP_MOBILE))
+                        .build(),
+                    PhoneNumber.builder()
+                        .type("work")
+                        .value((String) props.get(ContentModel.PROP_TELEPHONE))
+                        .build()));
+        }
+        if (projection.title) {
+            user.setTitle((String) props.get(ContentModel.PROP_JOBTITLE));
+        }
+        if (projection.active) {
+            user.setActive(!nodeService.getAspects(personRef).contains(ContentModel.ASPECT_PERSON_DISABLED));
+        }
+        if (projection.meta) {
+            user.setMeta(getMeta(personRef, USER_RESOURCE_TYPE, props));
+        }
+        if (projection.groups) {
+            user.setGroups(userGroupsService.getGroups(personRef, user.getUserName().get())
+                    .stream()
+                    .map(group -> GroupNode.builder()
+                            .value(group.getId())
+                            .display(group.getDisplayName())
+                            .type("direct")
+                            .build())
+                    .collect(Collectors.toList()));
+        }
+        return user;
+    }
+
+    /**
+     * User.groups lists the direct groups, but membership changes only write the group nodes.
+     */
+    @Override
+    protected Collection<NodeRef> getVersionedRelatedNodes(NodeRef personRef) {
+        String userName = (String) nodeService.getProperty(personRef, ContentModel.PROP_USERNAME);
+        return userGroupsService.getGroups(personRef, userName)
+                .stream()
+                .map(group -> new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, group.getId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Top level User attributes to populate for a request, derived once from attributes/excludedAttributes.
+     */
+    private static class UserProjection {
+
+        static final UserProjection ALL = new UserProjection(null, null);
+
+        final boolean name;
+        final boolean emails;
+        final boolean phoneNumbers;
+        final boolean title;
+        final boolean active;
+        final boolean meta;
+        final boolean groups;
+
+        UserProjection(List<SchemaAttribute> attributes, List<SchemaAttribute> excludedAttributes) {
+            name = isAttributeReturned("name", attributes, excludedAttributes);
+            emails = isAttributeReturned("emails", attributes, excludedAttributes);
+            phoneNumbers = isAttributeReturned("phoneNumbers", attributes, excludedAttributes);
+            title = isAttributeReturned("title", attributes, excludedAttributes);
+            active = isAttributeReturned("active", attributes, excludedAttributes);
+            meta = isAttributeReturned("meta", attributes, excludedAttributes);
+            groups = isAttributeReturned("groups", attributes, excludedAttributes);
+        }
     }
 
 }
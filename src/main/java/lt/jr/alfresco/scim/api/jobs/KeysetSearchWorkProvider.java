@@ -0,0 +1,77 @@
+package lt.jr.alfresco.scim.api.jobs;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Feeds a {@link org.alfresco.repo.batch.BatchProcessor} with the results of an AFTS query, page by page in
+ * sys:node-dbid order. Workers typically change the nodes so they no longer match the query, which would shift
+ * offset based pages, so every page starts after the highest node id seen so far.
+ */
+public class KeysetSearchWorkProvider implements BatchProcessWorkProvider<NodeRef> {
+
+    private final SearchService searchService;
+    private final NodeService nodeService;
+    private final RetryingTransactionHelper retryingTransactionHelper;
+    private final String query;
+    private final int pageSize;
+
+    private long lastNodeId = -1;
+
+    public KeysetSearchWorkProvider(SearchService searchService, NodeService nodeService,
+            RetryingTransactionHelper retryingTransactionHelper, String query, int pageSize) {
+        this.searchService = searchService;
+        this.nodeService = nodeService;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.query = query;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public int getTotalEstimatedWorkSize() {
+        return -1;
+    }
+
+    @Override
+    public Collection<NodeRef> getNextWork() {
+        return retryingTransactionHelper.doInTransaction(() -> {
+            List<NodeRef> nodeRefs = search();
+            if (nodeRefs.isEmpty()) {
+                return Collections.emptyList();
+            }
+            lastNodeId = (Long) nodeService.getProperty(nodeRefs.get(nodeRefs.size() - 1), ContentModel.PROP_NODE_DBID);
+            return nodeRefs;
+        }, true, true);
+    }
+
+    private List<NodeRef> search() {
+        SearchParameters sp = new SearchParameters();
+        sp.setQuery(lastNodeId < 0 ? query : query + " AND sys:node-dbid:<" + lastNodeId + " TO MAX]");
+        sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        sp.setQueryConsistency(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE);
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.addSort("@" + ContentModel.PROP_NODE_DBID, true);
+        sp.setMaxItems(pageSize);
+        ResultSet results = null;
+        try {
+            results = searchService.query(sp);
+            return results == null ? Collections.emptyList() : results.getNodeRefs();
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package lt.jr.alfresco.scim.api.jobs;
+
+import lt.jr.alfresco.scim.api.services.ReconciliationService;
+import org.alfresco.schedule.AbstractScheduledLockedJob;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Runs {@link ReconciliationService#reconcile()} on one cluster node at a time.
+ */
+public class ScimReconciliationJob extends AbstractScheduledLockedJob {
+
+    private static final String RECONCILIATION_SERVICE = "reconciliationService";
+
+    @Override
+    public void executeJob(JobExecutionContext context) throws JobExecutionException {
+        Object reconciliationService = context.getJobDetail().getJobDataMap().get(RECONCILIATION_SERVICE);
+        if (!(reconciliationService instanceof ReconciliationService)) {
+            throw new JobExecutionException("Missing job data '" + RECONCILIATION_SERVICE + "'");
+        }
+        ((ReconciliationService) reconciliationService).reconcile();
+    }
+}
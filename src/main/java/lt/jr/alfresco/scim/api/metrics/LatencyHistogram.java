@@ -0,0 +1,68 @@
+package lt.jr.alfresco.scim.api.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with fixed millisecond buckets. Percentiles are reported as the upper bound
+ * of the bucket they fall into, which is precise enough to spot regressions.
+ */
+class LatencyHistogram {
+
+    private static final long[] BUCKET_BOUNDS_MS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, Long.MAX_VALUE};
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MS.length];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMs = new LongAdder();
+    private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long millis) {
+        int bucket = 0;
+        while (millis > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        totalMs.add(millis);
+        maxMs.accumulate(millis);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    String describe() {
+        long total = count.sum();
+        if (total == 0) {
+            return "count=0";
+        }
+        return "count=" + total
+                + " avg=" + totalMs.sum() / total + "ms"
+                + " p50<=" + formatBound(percentile(total, 0.5))
+                + " p95<=" + formatBound(percentile(total, 0.95))
+                + " p99<=" + formatBound(percentile(total, 0.99))
+                + " max=" + maxMs.get() + "ms";
+    }
+
+    private long percentile(long total, double quantile) {
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static String formatBound(long bound) {
+        return bound == Long.MAX_VALUE ? "inf" : bound + "ms";
+    }
+}
@@ -0,0 +1,46 @@
+package lt.jr.alfresco.scim.api.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts the repository service calls made by the SCIM request running on the current thread.
+ */
+public final class RepositoryCallBudget {
+
+    private static final ThreadLocal<Map<String, Integer>> CALLS = new ThreadLocal<>();
+
+    private RepositoryCallBudget() {
+    }
+
+    public static void start() {
+        CALLS.set(new TreeMap<>());
+    }
+
+    /**
+     * Returns the calls per service made since {@link #start()} and stops counting.
+     */
+    public static Map<String, Integer> finish() {
+        Map<String, Integer> calls = CALLS.get();
+        CALLS.remove();
+        return calls == null ? Collections.emptyMap() : calls;
+    }
+
+    /**
+     * Adds calls made on behalf of the current request by other threads.
+     */
+    public static void add(Map<String, Integer> repositoryCalls) {
+        Map<String, Integer> calls = CALLS.get();
+        if (calls != null) {
+            repositoryCalls.forEach((service, count) -> calls.merge(service, count, Integer::sum));
+        }
+    }
+
+    static void record(String service) {
+        Map<String, Integer> calls = CALLS.get();
+        if (calls != null) {
+            calls.merge(service, 1, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package lt.jr.alfresco.scim.api.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Wraps the repository services injected into the SCIM handlers and services (see the scim*Service proxies
+ * in module-context.xml) and attributes every call to the running request.
+ */
+public class RepositoryCallInterceptor implements MethodInterceptor {
+
+    private final String serviceName;
+
+    public RepositoryCallInterceptor(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        RepositoryCallBudget.record(serviceName);
+        return invocation.proceed();
+    }
+}
@@ -0,0 +1,177 @@
+package lt.jr.alfresco.scim.api.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Structured SCIM access log written to the {@value #ACCESS_LOGGER} logger.
+ * Failed requests are always logged, successful ones are sampled. Entries are formatted and written by a single
+ * background thread from a bounded queue, so request threads never wait for log I/O; entries that do not fit
+ * into the queue are dropped and counted. Bodies are only logged up to the configured size with the configured
+ * JSON fields redacted.
+ */
+@Component("ScimAccessLog")
+public class ScimAccessLog implements InitializingBean, DisposableBean {
+
+    public static final String ACCESS_LOGGER = "lt.jr.alfresco.scim.access";
+    private static final String REDACTED = "***";
+    private static final String FILTER_PARAMETER = "filter=";
+
+    private final Logger logger = LoggerFactory.getLogger(ScimAccessLog.class);
+    private final Logger accessLogger = LoggerFactory.getLogger(ACCESS_LOGGER);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Value("${scim.accessLog.sampleRate}")
+    private double sampleRate;
+
+    @Value("${scim.accessLog.maxBodySize}")
+    private int maxBodySize;
+
+    @Value("${scim.accessLog.redactedFields}")
+    private String redactedFields;
+
+    @Value("${scim.accessLog.queueSize}")
+    private int queueSize;
+
+    @Value("${scim.accessLog.debugHeader.enabled}")
+    private boolean debugHeaderEnabled;
+
+    private Set<String> redacted = Collections.emptySet();
+    private ThreadPoolExecutor executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        redacted = Arrays.stream(StringUtils.split(StringUtils.defaultString(redactedFields), ','))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .map(field -> field.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("scim-access-log").setDaemon(true).build(),
+                (task, pool) -> dropped.incrementAndGet());
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Whether the {@code X-Scim-Debug} header of a request may force its full access log entry.
+     */
+    public boolean isDebugHeaderEnabled() {
+        return debugHeaderEnabled;
+    }
+
+    /**
+     * Queues an access log entry. Entries of debug requests are always written and include the redacted body
+     * and the repository calls made by the request.
+     */
+    public void log(String operation, String method, String path, String query, String user, int status, long millis,
+            String body, Map<String, Integer> repositoryCalls, boolean debug) {
+        if (!accessLogger.isInfoEnabled() || !isLogged(status, debug)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                accessLogger.info(format(operation, method, path, query, user, status, millis, body, repositoryCalls, debug));
+            } catch (RuntimeException e) {
+                logger.debug("Could not write SCIM access log entry", e);
+            }
+        });
+    }
+
+    private boolean isLogged(int status, boolean debug) {
+        return debug || status >= 400 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    private String format(String operation, String method, String path, String query, String user, int status,
+            long millis, String body, Map<String, Integer> repositoryCalls, boolean debug) {
+        ObjectNode entry = objectMapper.createObjectNode();
+        entry.put("operation", operation);
+        entry.put("method", method);
+        entry.put("path", path);
+        if (StringUtils.isNotEmpty(query)) {
+            entry.put("query", debug ? query : redactFilter(query));
+        }
+        entry.put("user", user);
+        entry.put("status", status);
+        entry.put("millis", millis);
+        if (StringUtils.isNotEmpty(body)) {
+            entry.put("bodySize", body.length());
+            if (body.length() <= maxBodySize || debug) {
+                entry.set("body", redactBody(body));
+            }
+        }
+        if (debug) {
+            entry.put("debug", true);
+            repositoryCalls.forEach(entry.putObject("repositoryCalls")::put);
+        }
+        long droppedEntries = dropped.getAndSet(0);
+        if (droppedEntries > 0) {
+            entry.put("droppedEntries", droppedEntries);
+        }
+        return entry.toString();
+    }
+
+    /**
+     * Filters routinely carry user names and emails, only the attribute paths are kept outside of debug requests.
+     */
+    private static String redactFilter(String query) {
+        return Arrays.stream(query.split("&"))
+                .map(parameter -> parameter.startsWith(FILTER_PARAMETER) ? FILTER_PARAMETER + REDACTED : parameter)
+                .collect(Collectors.joining("&"));
+    }
+
+    private JsonNode redactBody(String body) {
+        try {
+            JsonNode json = objectMapper.readTree(body);
+            redact(json);
+            return json;
+        } catch (IOException e) {
+            // the raw text of a body that is not JSON could contain anything
+            return objectMapper.getNodeFactory().textNode("<unparseable>");
+        }
+    }
+
+    private void redact(JsonNode node) {
+        if (node instanceof ObjectNode) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (redacted.contains(field.getKey().toLowerCase(Locale.ROOT))) {
+                    field.setValue(objectMapper.getNodeFactory().textNode(REDACTED));
+                } else {
+                    redact(field.getValue());
+                }
+            }
+        } else if (node instanceof ArrayNode) {
+            node.forEach(this::redact);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package lt.jr.alfresco.scim.api.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component("ScimMetrics")
+public class ScimMetrics implements ScimMetricsMBean {
+
+    private final Logger logger = LoggerFactory.getLogger(ScimMetrics.class);
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder transactionRetries = new LongAdder();
+    private final LongAdder callBudgetExceeded = new LongAdder();
+
+    @Value("${scim.metrics.repositoryCallBudget}")
+    private int repositoryCallBudget;
+
+    /**
+     * Records a finished request. {@code operation} is the resource type and HTTP method, e.g. "Users GET".
+     */
+    public void recordRequest(String operation, long millis, int status, Map<String, Integer> repositoryCalls) {
+        OperationStats stats = operations.computeIfAbsent(operation, key -> new OperationStats());
+        stats.latency.record(millis);
+        int totalCalls = 0;
+        for (Map.Entry<String, Integer> calls : repositoryCalls.entrySet()) {
+            stats.callsByService.computeIfAbsent(calls.getKey(), key -> new LongAdder()).add(calls.getValue());
+            totalCalls += calls.getValue();
+        }
+        stats.maxCalls.accumulate(totalCalls);
+        if (status >= 400) {
+            errors.increment();
+        }
+        if (repositoryCallBudget > 0 && totalCalls > repositoryCallBudget) {
+            callBudgetExceeded.increment();
+            logger.warn("{} made {} repository calls in {}ms, budget is {}: {}", operation, totalCalls, millis,
+                    repositoryCallBudget, repositoryCalls);
+        }
+    }
+
+    public void recordTransactionRetries(int retries) {
+        transactionRetries.add(retries);
+    }
+
+    @Override
+    public String[] getOperationLatencies() {
+        return new TreeMap<>(operations).entrySet().stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue().latency.describe())
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getRepositoryCalls() {
+        return new TreeMap<>(operations).entrySet().stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue().describeCalls())
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getTransactionRetryCount() {
+        return transactionRetries.sum();
+    }
+
+    @Override
+    public long getCallBudgetExceededCount() {
+        return callBudgetExceeded.sum();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        errors.reset();
+        transactionRetries.reset();
+        callBudgetExceeded.reset();
+    }
+
+    private static class OperationStats {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConcurrentMap<String, LongAdder> callsByService = new ConcurrentHashMap<>();
+        private final LongAccumulator maxCalls = new LongAccumulator(Math::max, 0);
+
+        String describeCalls() {
+            long requests = latency.getCount();
+            if (requests == 0) {
+                return "requests=0";
+            }
+            StringBuilder description = new StringBuilder("requests=").append(requests)
+                    .append(" maxPerRequest=").append(maxCalls.get());
+            new TreeMap<>(callsByService).forEach((service, calls) ->
+                    description.append(' ').append(service).append("AvgPerRequest=")
+                            .append(String.format("%.1f", (double) calls.sum() / requests)));
+            return description.toString();
+        }
+    }
+}
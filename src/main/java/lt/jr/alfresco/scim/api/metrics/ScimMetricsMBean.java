@@ -0,0 +1,28 @@
+package lt.jr.alfresco.scim.api.metrics;
+
+/**
+ * Management interface of {@link ScimMetrics}, exported over JMX as Alfresco:Name=ScimMetrics.
+ */
+public interface ScimMetricsMBean {
+
+    /**
+     * Latency histogram per resource type and HTTP method.
+     */
+    String[] getOperationLatencies();
+
+    /**
+     * Repository service calls per request, by resource type and HTTP method.
+     */
+    String[] getRepositoryCalls();
+
+    long getErrorCount();
+
+    long getTransactionRetryCount();
+
+    /**
+     * Requests that made more repository calls than scim.metrics.repositoryCallBudget.
+     */
+    long getCallBudgetExceededCount();
+
+    void reset();
+}
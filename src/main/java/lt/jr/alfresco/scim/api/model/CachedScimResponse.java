@@ -0,0 +1,39 @@
+package lt.jr.alfresco.scim.api.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CachedScimResponse implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int httpStatus;
+    private final Map<String, String> httpHeaders;
+    private final byte[] body;
+    private final String eTag;
+
+    public CachedScimResponse(int httpStatus, Map<String, String> httpHeaders, byte[] body, String eTag) {
+        this.httpStatus = httpStatus;
+        this.httpHeaders = Collections.unmodifiableMap(new HashMap<>(httpHeaders));
+        this.body = body;
+        this.eTag = eTag;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public Map<String, String> getHttpHeaders() {
+        return httpHeaders;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -0,0 +1,39 @@
+package lt.jr.alfresco.scim.api.model;
+
+public class ChangeEntry {
+
+    /**
+     * Ordered by precedence: when a resource changes several times in one transaction the highest type is kept.
+     */
+    public enum Type {
+        MODIFIED, DISABLED, CREATED, DELETED
+    }
+
+    private final String id;
+    private final String resourceType;
+    private final Type type;
+    private final long timestamp;
+
+    public ChangeEntry(String id, String resourceType, Type type, long timestamp) {
+        this.id = id;
+        this.resourceType = resourceType;
+        this.type = type;
+        this.timestamp = timestamp;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,26 @@
+package lt.jr.alfresco.scim.api.model;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ChangePage {
+
+    private final List<ChangeEntry> changes;
+    private final long watermark;
+
+    public ChangePage(List<ChangeEntry> changes, long watermark) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.watermark = watermark;
+    }
+
+    public List<ChangeEntry> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Value to pass as {@code since} on the next poll.
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+}
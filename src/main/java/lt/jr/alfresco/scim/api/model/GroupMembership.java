@@ -0,0 +1,27 @@
+package lt.jr.alfresco.scim.api.model;
+
+import java.io.Serializable;
+
+/**
+ * A direct group of a user, as kept in the reverse membership cache.
+ */
+public class GroupMembership implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final String displayName;
+
+    public GroupMembership(String id, String displayName) {
+        this.id = id;
+        this.displayName = displayName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
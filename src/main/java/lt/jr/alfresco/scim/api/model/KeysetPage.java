@@ -0,0 +1,25 @@
+package lt.jr.alfresco.scim.api.model;
+
+import java.util.List;
+
+public class KeysetPage<T> {
+
+    private final List<T> resources;
+    private final String nextKey;
+
+    public KeysetPage(List<T> resources, String nextKey) {
+        this.resources = resources;
+        this.nextKey = nextKey;
+    }
+
+    public List<T> getResources() {
+        return resources;
+    }
+
+    /**
+     * Sort key of the last resource of the page, or null when there are no further pages.
+     */
+    public String getNextKey() {
+        return nextKey;
+    }
+}
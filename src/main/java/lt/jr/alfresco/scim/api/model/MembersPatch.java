@@ -0,0 +1,42 @@
+package lt.jr.alfresco.scim.api.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MembersPatch {
+
+    public enum Type {
+        ADD, REMOVE, REMOVE_ALL, REPLACE
+    }
+
+    public static class Operation {
+
+        private final Type type;
+        private final List<String> memberIds;
+
+        public Operation(Type type, List<String> memberIds) {
+            this.type = type;
+            this.memberIds = Collections.unmodifiableList(memberIds);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public List<String> getMemberIds() {
+            return memberIds;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    public MembersPatch add(Operation operation) {
+        operations.add(operation);
+        return this;
+    }
+
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+}
@@ -0,0 +1,24 @@
+package lt.jr.alfresco.scim.api.model;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.List;
+
+public class NodeRefPage {
+
+    private final List<NodeRef> nodeRefs;
+    private final long totalResults;
+
+    public NodeRefPage(List<NodeRef> nodeRefs, long totalResults) {
+        this.nodeRefs = nodeRefs;
+        this.totalResults = totalResults;
+    }
+
+    public List<NodeRef> getNodeRefs() {
+        return nodeRefs;
+    }
+
+    public long getTotalResults() {
+        return totalResults;
+    }
+}
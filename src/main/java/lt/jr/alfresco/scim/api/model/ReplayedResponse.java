@@ -0,0 +1,31 @@
+package lt.jr.alfresco.scim.api.model;
+
+import java.io.Serializable;
+
+/**
+ * The response of a successful POST or PUT, kept to answer retries of the same request. Only valid while the
+ * resource still has the version the response was built from.
+ */
+public class ReplayedResponse implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String resourceId;
+    private final CachedScimResponse response;
+
+    public ReplayedResponse(String resourceId, CachedScimResponse response) {
+        this.resourceId = resourceId;
+        this.response = response;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    /**
+     * The stored response, {@link CachedScimResponse#getETag()} is the version of the resource it describes.
+     */
+    public CachedScimResponse getResponse() {
+        return response;
+    }
+}
@@ -9,5 +9,7 @@ public interface ScimModel {
 
     QName PROP_EXTERNAL_ID = QName.createQName(URI, "externalId");
 
+    QName PROP_EXTERNAL_ID_LOWER = QName.createQName(URI, "externalIdLower");
+
     QName PROP_LAST_SYNC_DATE = QName.createQName(URI, "lastSyncDate");
 }
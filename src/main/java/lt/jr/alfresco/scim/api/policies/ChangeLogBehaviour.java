@@ -0,0 +1,138 @@
+package lt.jr.alfresco.scim.api.policies;
+
+import com.google.common.collect.ImmutableSet;
+import lt.jr.alfresco.scim.api.model.ChangeEntry;
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import lt.jr.alfresco.scim.api.services.ChangeLogService;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Feeds the SCIM change log from users and groups carrying scim:ExternalAuthority. Updates that only stamp
+ * scim:lastSyncDate, like unchanged PUTs and replays, are not changes. Group membership changes are recorded for
+ * the group and for the member, whose groups changed.
+ */
+@Component
+public class ChangeLogBehaviour implements NodeServicePolicies.OnAddAspectPolicy,
+        NodeServicePolicies.OnRemoveAspectPolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy,
+        NodeServicePolicies.OnCreateChildAssociationPolicy,
+        NodeServicePolicies.OnDeleteChildAssociationPolicy {
+
+    /**
+     * Properties written along with every update, a difference in them alone is not a change of the resource.
+     */
+    private static final Set<QName> BOOKKEEPING_PROPERTIES = ImmutableSet.of(ScimModel.PROP_LAST_SYNC_DATE,
+            ContentModel.PROP_MODIFIED, ContentModel.PROP_MODIFIER);
+
+    @Autowired
+    @Qualifier("policyComponent")
+    private PolicyComponent policyComponent;
+    @Autowired
+    @Qualifier("NodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("ChangeLogService")
+    private ChangeLogService changeLogService;
+
+    @PostConstruct
+    public void init() {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnAddAspectPolicy.QNAME,
+                ScimModel.ASPECT_EXTERNAL_AUTHORITY,
+                new JavaBehaviour(this, "onAddAspect", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ScimModel.ASPECT_EXTERNAL_AUTHORITY,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                ScimModel.ASPECT_EXTERNAL_AUTHORITY,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnAddAspectPolicy.QNAME,
+                ContentModel.ASPECT_PERSON_DISABLED,
+                new JavaBehaviour(this, "onAddAspect", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnRemoveAspectPolicy.QNAME,
+                ContentModel.ASPECT_PERSON_DISABLED,
+                new JavaBehaviour(this, "onRemoveAspect", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+                new JavaBehaviour(this, "onCreateChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+                new JavaBehaviour(this, "onDeleteChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onAddAspect(NodeRef nodeRef, QName aspectTypeQName) {
+        if (ScimModel.ASPECT_EXTERNAL_AUTHORITY.equals(aspectTypeQName)) {
+            changeLogService.recordChange(nodeRef, ChangeEntry.Type.CREATED);
+        } else if (isExternalAuthority(nodeRef)) {
+            changeLogService.recordChange(nodeRef, ChangeEntry.Type.DISABLED);
+        }
+    }
+
+    @Override
+    public void onRemoveAspect(NodeRef nodeRef, QName aspectTypeQName) {
+        if (isExternalAuthority(nodeRef)) {
+            changeLogService.recordChange(nodeRef, ChangeEntry.Type.MODIFIED);
+        }
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        if (isResourceChange(before, after) && nodeService.exists(nodeRef)) {
+            changeLogService.recordChange(nodeRef, ChangeEntry.Type.MODIFIED);
+        }
+    }
+
+    @Override
+    public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode) {
+        recordMembershipChange(childAssocRef);
+    }
+
+    @Override
+    public void onDeleteChildAssociation(ChildAssociationRef childAssocRef) {
+        recordMembershipChange(childAssocRef);
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef nodeRef) {
+        changeLogService.recordChange(nodeRef, ChangeEntry.Type.DELETED);
+    }
+
+    private void recordMembershipChange(ChildAssociationRef childAssocRef) {
+        if (isExternalAuthority(childAssocRef.getParentRef())) {
+            changeLogService.recordChange(childAssocRef.getParentRef(), ChangeEntry.Type.MODIFIED);
+        }
+        if (isExternalAuthority(childAssocRef.getChildRef())) {
+            changeLogService.recordChange(childAssocRef.getChildRef(), ChangeEntry.Type.MODIFIED);
+        }
+    }
+
+    private static boolean isResourceChange(Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        Set<QName> names = new HashSet<>(before.keySet());
+        names.addAll(after.keySet());
+        return names.stream().anyMatch(name -> !BOOKKEEPING_PROPERTIES.contains(name)
+                && !Objects.equals(before.get(name), after.get(name)));
+    }
+
+    private boolean isExternalAuthority(NodeRef nodeRef) {
+        return nodeService.exists(nodeRef) && nodeService.hasAspect(nodeRef, ScimModel.ASPECT_EXTERNAL_AUTHORITY);
+    }
+}
@@ -0,0 +1,67 @@
+package lt.jr.alfresco.scim.api.policies;
+
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import lt.jr.alfresco.scim.api.services.ExternalIdResolver;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps scim:externalIdLower in sync with scim:externalId and evicts resolver cache entries
+ * whenever an external id changes or its authority is deleted.
+ */
+@Component
+public class ExternalAuthorityBehaviour implements NodeServicePolicies.OnUpdatePropertiesPolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy {
+
+    @Autowired
+    @Qualifier("policyComponent")
+    private PolicyComponent policyComponent;
+    @Autowired
+    @Qualifier("NodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("ExternalIdResolver")
+    private ExternalIdResolver externalIdResolver;
+
+    @PostConstruct
+    public void init() {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ScimModel.ASPECT_EXTERNAL_AUTHORITY,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                ScimModel.ASPECT_EXTERNAL_AUTHORITY,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        String oldExternalId = (String) before.get(ScimModel.PROP_EXTERNAL_ID);
+        String newExternalId = (String) after.get(ScimModel.PROP_EXTERNAL_ID);
+        String normalized = ExternalIdResolver.normalize(newExternalId);
+        if (!Objects.equals(oldExternalId, newExternalId)) {
+            externalIdResolver.evict(oldExternalId);
+            externalIdResolver.evict(newExternalId);
+        }
+        if (!Objects.equals(normalized, after.get(ScimModel.PROP_EXTERNAL_ID_LOWER)) && nodeService.exists(nodeRef)) {
+            nodeService.setProperty(nodeRef, ScimModel.PROP_EXTERNAL_ID_LOWER, normalized);
+        }
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef nodeRef) {
+        externalIdResolver.evict((String) nodeService.getProperty(nodeRef, ScimModel.PROP_EXTERNAL_ID));
+    }
+}
@@ -0,0 +1,93 @@
+package lt.jr.alfresco.scim.api.policies;
+
+import lt.jr.alfresco.scim.api.services.UserGroupsService;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the reverse membership cache of {@link UserGroupsService} in sync with membership changes made outside
+ * of SCIM (Share, LDAP synchronization, scripts), group renames and group deletions.
+ */
+@Component
+public class UserGroupsBehaviour implements NodeServicePolicies.OnCreateChildAssociationPolicy,
+        NodeServicePolicies.OnDeleteChildAssociationPolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy {
+
+    @Autowired
+    @Qualifier("policyComponent")
+    private PolicyComponent policyComponent;
+    @Autowired
+    @Qualifier("NodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("UserGroupsService")
+    private UserGroupsService userGroupsService;
+
+    @PostConstruct
+    public void init() {
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+                new JavaBehaviour(this, "onCreateChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+                new JavaBehaviour(this, "onDeleteChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode) {
+        evictMember(childAssocRef.getChildRef());
+    }
+
+    @Override
+    public void onDeleteChildAssociation(ChildAssociationRef childAssocRef) {
+        evictMember(childAssocRef.getChildRef());
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        // cached memberships carry the group display name
+        if (!Objects.equals(before.get(ContentModel.PROP_AUTHORITY_DISPLAY_NAME), after.get(ContentModel.PROP_AUTHORITY_DISPLAY_NAME))
+                && nodeService.exists(nodeRef)) {
+            evictMembers(nodeRef);
+        }
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef nodeRef) {
+        evictMembers(nodeRef);
+    }
+
+    private void evictMembers(NodeRef groupRef) {
+        nodeService.getChildAssocs(groupRef, ContentModel.ASSOC_MEMBER, RegexQNamePattern.MATCH_ALL, false)
+                .forEach(assoc -> evictMember(assoc.getChildRef()));
+    }
+
+    private void evictMember(NodeRef memberRef) {
+        if (nodeService.exists(memberRef)) {
+            userGroupsService.evict((String) nodeService.getProperty(memberRef, ContentModel.PROP_USERNAME));
+        }
+    }
+}
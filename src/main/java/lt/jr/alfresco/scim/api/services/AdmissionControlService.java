@@ -0,0 +1,32 @@
+package lt.jr.alfresco.scim.api.services;
+
+import java.util.Optional;
+
+public interface AdmissionControlService {
+
+    /**
+     * Admits a request of the client once both the client and the read or write operation class have a free slot,
+     * waiting a short time in their queues. Returns empty when a queue is full or the wait timed out; the request
+     * should then be rejected with 429. The returned admission must be closed when the request completes.
+     */
+    default Optional<Admission> admit(String client, boolean write) {
+        return admit(client, write, 1);
+    }
+
+    /**
+     * Admits a request that runs on up to {@code permits} threads at once, such as a bulk request. It takes that
+     * many slots of the client and of the operation class, at most their limits.
+     */
+    Optional<Admission> admit(String client, boolean write, int permits);
+
+    /**
+     * Seconds rejected clients are asked to wait in the Retry-After header.
+     */
+    int getRetryAfterSeconds();
+
+    interface Admission extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,181 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the requests a single client and all clients together may run at once, separately for reads and writes,
+ * so a full push of an identity provider can not take every repository transaction and database connection.
+ * Requests beyond a limit wait in a short fair queue; when the queue is full or the wait times out the request
+ * is rejected and the client is expected to retry after {@link #getRetryAfterSeconds()}.
+ */
+@Service("AdmissionControlService")
+public class AdmissionControlServiceImpl implements AdmissionControlService, AdmissionControlServiceMBean {
+
+    private static final Admission UNLIMITED = () -> {
+    };
+
+    private final Logger logger = LoggerFactory.getLogger(AdmissionControlServiceImpl.class);
+
+    @Value("${scim.admission.enabled}")
+    private boolean enabled;
+    @Value("${scim.admission.maxConcurrentPerClient}")
+    private int maxConcurrentPerClient;
+    @Value("${scim.admission.maxConcurrentReads}")
+    private int maxConcurrentReads;
+    @Value("${scim.admission.maxConcurrentWrites}")
+    private int maxConcurrentWrites;
+    @Value("${scim.admission.maxQueued}")
+    private int maxQueued;
+    @Value("${scim.admission.maxWaitMs}")
+    private long maxWaitMs;
+    @Value("${scim.admission.retryAfterSeconds}")
+    private int retryAfterSeconds;
+
+    private final ConcurrentMap<String, Lane> clients = new ConcurrentHashMap<>();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private Lane reads;
+    private Lane writes;
+
+    @PostConstruct
+    public void init() {
+        reads = new Lane(maxConcurrentReads);
+        writes = new Lane(maxConcurrentWrites);
+    }
+
+    @Override
+    public Optional<Admission> admit(String client, boolean write, int permits) {
+        if (!enabled) {
+            return Optional.of(UNLIMITED);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        Lane clientLane = clients.computeIfAbsent(client, key -> new Lane(maxConcurrentPerClient));
+        Lane operationLane = write ? writes : reads;
+        int clientPermits = clientLane.toPermits(permits);
+        int operationPermits = operationLane.toPermits(permits);
+        if (!clientLane.acquire(deadline, clientPermits)) {
+            return reject(client, write, "client");
+        }
+        if (!operationLane.acquire(deadline, operationPermits)) {
+            clientLane.release(clientPermits);
+            return reject(client, write, write ? "writes" : "reads");
+        }
+        admitted.increment();
+        return Optional.of(() -> {
+            operationLane.release(operationPermits);
+            clientLane.release(clientPermits);
+        });
+    }
+
+    private Optional<Admission> reject(String client, boolean write, String limit) {
+        rejected.increment();
+        logger.debug("Rejected {} of {}, the {} limit is reached", write ? "write" : "read", client, limit);
+        return Optional.empty();
+    }
+
+    @Override
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public String[] getClients() {
+        return new TreeMap<>(clients).entrySet().stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue().describe())
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public String getReads() {
+        return reads.describe();
+    }
+
+    @Override
+    public String getWrites() {
+        return writes.describe();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        // a request queues on its client lane first, then on the read or write lane, never on both at once
+        return clients.values().stream().mapToInt(lane -> lane.queued.get()).sum()
+                + reads.queued.get() + writes.queued.get();
+    }
+
+    @Override
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private class Lane {
+
+        private final int limit;
+        private final Semaphore permits;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder rejections = new LongAdder();
+
+        Lane(int limit) {
+            this.limit = limit;
+            this.permits = new Semaphore(limit, true);
+        }
+
+        /**
+         * A request never needs more slots than the limit, otherwise it could never be admitted.
+         */
+        int toPermits(int requested) {
+            return Math.max(1, Math.min(requested, limit));
+        }
+
+        boolean acquire(long deadline, int count) {
+            try {
+                // a zero timeout honors the fairness, unlike tryAcquire(), so queued requests are not overtaken
+                if (permits.tryAcquire(count, 0, TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+                if (queued.incrementAndGet() > maxQueued) {
+                    queued.decrementAndGet();
+                    rejections.increment();
+                    return false;
+                }
+                try {
+                    if (permits.tryAcquire(count, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        return true;
+                    }
+                } finally {
+                    queued.decrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rejections.increment();
+            return false;
+        }
+
+        void release(int count) {
+            permits.release(count);
+        }
+
+        String describe() {
+            return "active=" + (limit - permits.availablePermits()) + " limit=" + limit + " queued=" + queued.get()
+                    + " rejected=" + rejections.sum();
+        }
+    }
+}
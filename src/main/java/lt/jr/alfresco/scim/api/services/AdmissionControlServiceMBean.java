@@ -0,0 +1,32 @@
+package lt.jr.alfresco.scim.api.services;
+
+/**
+ * Management interface of {@link AdmissionControlServiceImpl}, exported over JMX as
+ * Alfresco:Name=ScimAdmissionControl.
+ */
+public interface AdmissionControlServiceMBean {
+
+    /**
+     * Active requests, queue depth and rejections per client.
+     */
+    String[] getClients();
+
+    /**
+     * Active requests, queue depth and rejections of GET requests.
+     */
+    String getReads();
+
+    /**
+     * Active requests, queue depth and rejections of POST, PUT, PATCH and DELETE requests.
+     */
+    String getWrites();
+
+    /**
+     * Requests currently waiting in any queue.
+     */
+    int getQueueDepth();
+
+    long getAdmittedCount();
+
+    long getRejectedCount();
+}
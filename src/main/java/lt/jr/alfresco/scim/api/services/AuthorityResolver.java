@@ -0,0 +1,12 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+public interface AuthorityResolver {
+
+    String getAuthorityName(NodeRef authorityRef);
+
+    NodeRef getAuthorityNodeRef(String authorityName);
+
+    void evict(NodeRef authorityRef, String authorityName);
+}
@@ -0,0 +1,75 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.namespace.QName;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.Serializable;
+
+@Service("AuthorityResolver")
+public class AuthorityResolverImpl implements AuthorityResolver {
+
+    private static final String REF_KEY_PREFIX = "ref:";
+    private static final String NAME_KEY_PREFIX = "name:";
+
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("scimAuthorityService")
+    private AuthorityService authorityService;
+    @Autowired
+    @Qualifier("scimAuthorityRefCache")
+    private SimpleCache<String, Serializable> authorityRefCache;
+
+    @Override
+    public String getAuthorityName(NodeRef authorityRef) {
+        String key = REF_KEY_PREFIX + authorityRef.getId();
+        String cached = (String) authorityRefCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        QName authType = nodeService.getType(authorityRef);
+        String authorityName = ContentModel.TYPE_AUTHORITY_CONTAINER.equals(authType)
+                ? (String) nodeService.getProperty(authorityRef, ContentModel.PROP_AUTHORITY_NAME)
+                : (String) nodeService.getProperty(authorityRef, ContentModel.PROP_USERNAME);
+        if (authorityName != null) {
+            authorityRefCache.put(key, authorityName);
+            authorityRefCache.put(NAME_KEY_PREFIX + authorityName, authorityRef);
+        }
+        return authorityName;
+    }
+
+    @Override
+    public NodeRef getAuthorityNodeRef(String authorityName) {
+        String key = NAME_KEY_PREFIX + authorityName;
+        NodeRef cached = (NodeRef) authorityRefCache.get(key);
+        if (cached != null && nodeService.exists(cached)) {
+            return cached;
+        }
+        NodeRef authorityRef = authorityService.getAuthorityNodeRef(authorityName);
+        if (authorityRef != null) {
+            authorityRefCache.put(key, authorityRef);
+            authorityRefCache.put(REF_KEY_PREFIX + authorityRef.getId(), authorityName);
+        } else {
+            authorityRefCache.remove(key);
+        }
+        return authorityRef;
+    }
+
+    @Override
+    public void evict(NodeRef authorityRef, String authorityName) {
+        if (authorityRef != null) {
+            authorityRefCache.remove(REF_KEY_PREFIX + authorityRef.getId());
+        }
+        if (authorityName != null) {
+            authorityRefCache.remove(NAME_KEY_PREFIX + authorityName);
+        }
+    }
+}
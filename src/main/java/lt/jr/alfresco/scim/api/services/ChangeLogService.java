@@ -0,0 +1,25 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.model.ChangeEntry;
+import lt.jr.alfresco.scim.api.model.ChangePage;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+public interface ChangeLogService {
+
+    /**
+     * Records a change of a user or group. Changes are collected per transaction and written when it commits.
+     */
+    void recordChange(NodeRef nodeRef, ChangeEntry.Type type);
+
+    /**
+     * Returns whether changes after the watermark are still retained.
+     */
+    boolean isAvailable(long since);
+
+    ChangePage getChanges(long since, int maxChanges);
+
+    /**
+     * Watermark to start polling from, without returning any changes.
+     */
+    long getCurrentWatermark();
+}
@@ -0,0 +1,317 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.model.ChangeEntry;
+import lt.jr.alfresco.scim.api.model.ChangePage;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.transaction.TransactionListenerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change log kept in the {@link AttributeService} under (root, hour bucket, node id). A resource changed several
+ * times within an hour keeps a single entry with its latest change, so the log grows with the number of changed
+ * resources rather than the number of writes. Reading a watermark only touches the buckets after it, and buckets
+ * older than the retention period are purged by the readers.
+ * <p>
+ * Entries are stamped when the writing transaction commits. A transaction still committing when a client polls
+ * could get a timestamp below the returned watermark, so watermarks trail the clock by a safety lag. A commit that
+ * took longer than half of the lag may have been passed by a watermark already, so its entries are stamped again
+ * in a new transaction after the commit and are returned by the next poll.
+ * <p>
+ * The attribute service can not read a bucket from a timestamp on, so a bucket holding more changes than a page is
+ * read once and kept sorted in memory. The following pages of a client paging through it are served from that
+ * snapshot as far as it reaches, instead of reading the whole bucket for every page.
+ */
+@Service("ChangeLogService")
+public class ChangeLogServiceImpl implements ChangeLogService {
+
+    private static final String ATTR_KEY_CHANGES = "lt.jr.alfresco.scim.changes";
+    private static final String ATTR_KEY_PURGED_UP_TO = "purgedUpTo";
+    private static final String PENDING_CHANGES_KEY = ChangeLogServiceImpl.class.getName() + ".pending";
+    private static final String WRITTEN_CHANGES_KEY = ChangeLogServiceImpl.class.getName() + ".written";
+    private static final String WRITTEN_TIMESTAMP_KEY = ChangeLogServiceImpl.class.getName() + ".writtenTimestamp";
+    private static final String ENTRY_RESOURCE_TYPE = "resourceType";
+    private static final String ENTRY_TYPE = "type";
+    private static final String ENTRY_TIMESTAMP = "timestamp";
+    private static final long BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MIN_SAFETY_LAG_MS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(ChangeLogServiceImpl.class);
+
+    private final TransactionListenerAdapter commitListener = new TransactionListenerAdapter() {
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            writePendingChanges();
+        }
+
+        @Override
+        public void afterCommit() {
+            restampLateCommit();
+        }
+    };
+    private final AtomicLong lastPurgedBucket = new AtomicLong(-1);
+    private volatile BucketSnapshot lastBucketSnapshot;
+    private volatile boolean purgeMarkerInitialized;
+
+    @Autowired
+    @Qualifier("AttributeService")
+    private AttributeService attributeService;
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("TransactionService")
+    private TransactionService transactionService;
+    @Value("${scim.changes.retentionHours}")
+    private int retentionHours;
+    @Value("${scim.changes.safetyLagMs}")
+    private long safetyLagMs;
+
+    @PostConstruct
+    public void init() {
+        if (safetyLagMs < MIN_SAFETY_LAG_MS) {
+            throw new IllegalArgumentException("scim.changes.safetyLagMs must be at least " + MIN_SAFETY_LAG_MS
+                    + " ms, it is " + safetyLagMs);
+        }
+    }
+
+    @Override
+    public void recordChange(NodeRef nodeRef, ChangeEntry.Type type) {
+        String resourceType = getResourceType(nodeService.getType(nodeRef));
+        if (resourceType == null) {
+            return;
+        }
+        Map<String, ChangeEntry> pending = TransactionalResourceHelper.getMap(PENDING_CHANGES_KEY);
+        ChangeEntry previous = pending.get(nodeRef.getId());
+        if (previous == null || previous.getType().compareTo(type) < 0) {
+            pending.put(nodeRef.getId(), new ChangeEntry(nodeRef.getId(), resourceType, type, 0L));
+        }
+        AlfrescoTransactionSupport.bindListener(commitListener);
+    }
+
+    @Override
+    public boolean isAvailable(long since) {
+        return since >= System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours);
+    }
+
+    @Override
+    public ChangePage getChanges(long since, int maxChanges) {
+        purgeExpiredBuckets();
+        long upTo = getCurrentWatermark();
+        if (upTo <= since) {
+            return new ChangePage(new ArrayList<>(), since);
+        }
+        List<ChangeEntry> changes = new ArrayList<>();
+        // entries of a later bucket are always newer, so buckets are read in order until the page is full
+        boolean truncated = false;
+        for (long bucket = toBucket(since); bucket <= toBucket(upTo); bucket++) {
+            if (changes.size() >= maxChanges) {
+                truncated = true;
+                break;
+            }
+            long bucketUpTo = Math.min(upTo, (bucket + 1) * BUCKET_MILLIS - 1);
+            BucketSnapshot snapshot = getBucketSnapshot(bucket, bucketUpTo, since, maxChanges - changes.size());
+            changes.addAll(snapshot.getEntries(since, upTo));
+            if (snapshot.coveredUpTo < bucketUpTo) {
+                // the snapshot filled the page without reaching the end of the requested range
+                truncated = true;
+                break;
+            }
+        }
+        if (changes.size() <= maxChanges && !truncated) {
+            return new ChangePage(changes, upTo);
+        }
+        // never split entries sharing a timestamp, the watermark would skip the rest of them
+        long lastTimestamp = changes.get(maxChanges - 1).getTimestamp();
+        int end = maxChanges;
+        while (end < changes.size() && changes.get(end).getTimestamp() == lastTimestamp) {
+            end++;
+        }
+        return new ChangePage(changes.subList(0, end), lastTimestamp);
+    }
+
+    /**
+     * Entries of the bucket up to {@code bucketUpTo}, from the snapshot of an earlier page when it reaches that far
+     * or already holds the {@code needed} entries after {@code since}, otherwise read from the attribute service.
+     * Entries up to the watermark of the read are complete for the same reason the watermark is safe; an entry
+     * overwritten since then is returned again with its new timestamp.
+     */
+    private BucketSnapshot getBucketSnapshot(long bucket, long bucketUpTo, long since, int needed) {
+        BucketSnapshot snapshot = lastBucketSnapshot;
+        if (snapshot != null && snapshot.bucket == bucket
+                && (snapshot.coveredUpTo >= bucketUpTo || snapshot.getEntries(since, bucketUpTo).size() >= needed)) {
+            return snapshot;
+        }
+        List<ChangeEntry> entries = new ArrayList<>();
+        attributeService.getAttributes((id, value, keys) -> {
+            ChangeEntry entry = toChangeEntry((String) keys[2], value);
+            if (entry.getTimestamp() <= bucketUpTo) {
+                entries.add(entry);
+            }
+            return true;
+        }, ATTR_KEY_CHANGES, bucket);
+        entries.sort(Comparator.comparingLong(ChangeEntry::getTimestamp));
+        snapshot = new BucketSnapshot(bucket, bucketUpTo, entries);
+        if (snapshot.getEntries(since, bucketUpTo).size() > needed) {
+            // the client will page through this bucket
+            lastBucketSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public long getCurrentWatermark() {
+        return System.currentTimeMillis() - safetyLagMs;
+    }
+
+    private void writePendingChanges() {
+        Map<String, ChangeEntry> pending = TransactionalResourceHelper.getMap(PENDING_CHANGES_KEY);
+        if (pending.isEmpty()) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        long bucket = toBucket(timestamp);
+        initPurgeMarker(bucket);
+        for (ChangeEntry change : pending.values()) {
+            HashMap<String, Serializable> value = new HashMap<>();
+            value.put(ENTRY_RESOURCE_TYPE, change.getResourceType());
+            value.put(ENTRY_TYPE, change.getType().name());
+            value.put(ENTRY_TIMESTAMP, timestamp);
+            attributeService.setAttribute(value, ATTR_KEY_CHANGES, bucket, change.getId());
+        }
+        TransactionalResourceHelper.getMap(WRITTEN_CHANGES_KEY).putAll(pending);
+        AlfrescoTransactionSupport.bindResource(WRITTEN_TIMESTAMP_KEY, timestamp);
+        pending.clear();
+    }
+
+    /**
+     * A poll running while this transaction committed may have returned a watermark past its timestamp when the
+     * commit took longer than the safety lag, so slow commits write their entries again with a new timestamp.
+     */
+    private void restampLateCommit() {
+        Long timestamp = AlfrescoTransactionSupport.getResource(WRITTEN_TIMESTAMP_KEY);
+        long commitMillis = timestamp == null ? 0 : System.currentTimeMillis() - timestamp;
+        if (commitMillis <= safetyLagMs / 2) {
+            return;
+        }
+        Map<String, ChangeEntry> written = new HashMap<>(TransactionalResourceHelper.<String, ChangeEntry>getMap(WRITTEN_CHANGES_KEY));
+        logger.warn("Commit took {} ms, safety lag is {} ms, stamping {} changes again", commitMillis, safetyLagMs,
+                written.size());
+        transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            TransactionalResourceHelper.<String, ChangeEntry>getMap(PENDING_CHANGES_KEY).putAll(written);
+            AlfrescoTransactionSupport.bindListener(commitListener);
+            return null;
+        }, false, true);
+    }
+
+    private void initPurgeMarker(long bucket) {
+        if (purgeMarkerInitialized) {
+            return;
+        }
+        if (attributeService.getAttribute(ATTR_KEY_CHANGES, ATTR_KEY_PURGED_UP_TO) == null) {
+            attributeService.setAttribute(bucket - 1, ATTR_KEY_CHANGES, ATTR_KEY_PURGED_UP_TO);
+        }
+        purgeMarkerInitialized = true;
+    }
+
+    /**
+     * Removes the buckets that fell out of the retention period since the last purge, at most once per bucket on each node.
+     */
+    private void purgeExpiredBuckets() {
+        long lastExpiredBucket = toBucket(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours)) - 1;
+        long purged = lastPurgedBucket.get();
+        if (purged >= lastExpiredBucket || !lastPurgedBucket.compareAndSet(purged, lastExpiredBucket)) {
+            return;
+        }
+        transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            Long purgedUpTo = (Long) attributeService.getAttribute(ATTR_KEY_CHANGES, ATTR_KEY_PURGED_UP_TO);
+            if (purgedUpTo == null || purgedUpTo >= lastExpiredBucket) {
+                return null;
+            }
+            for (long bucket = purgedUpTo + 1; bucket <= lastExpiredBucket; bucket++) {
+                attributeService.removeAttributes(ATTR_KEY_CHANGES, bucket);
+            }
+            attributeService.setAttribute(lastExpiredBucket, ATTR_KEY_CHANGES, ATTR_KEY_PURGED_UP_TO);
+            logger.debug("Purged change log buckets {} to {}", purgedUpTo + 1, lastExpiredBucket);
+            return null;
+        }, false, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChangeEntry toChangeEntry(String nodeId, Serializable value) {
+        Map<String, Serializable> entry = (Map<String, Serializable>) value;
+        return new ChangeEntry(nodeId,
+                (String) entry.get(ENTRY_RESOURCE_TYPE),
+                ChangeEntry.Type.valueOf((String) entry.get(ENTRY_TYPE)),
+                (Long) entry.get(ENTRY_TIMESTAMP));
+    }
+
+    private static class BucketSnapshot {
+
+        private final long bucket;
+        private final long coveredUpTo;
+        private final List<ChangeEntry> entries;
+
+        BucketSnapshot(long bucket, long coveredUpTo, List<ChangeEntry> entries) {
+            this.bucket = bucket;
+            this.coveredUpTo = coveredUpTo;
+            this.entries = entries;
+        }
+
+        /**
+         * Entries stamped after {@code since} and up to {@code upTo}, in timestamp order.
+         */
+        List<ChangeEntry> getEntries(long since, long upTo) {
+            return entries.subList(indexAfter(since), indexAfter(Math.min(upTo, coveredUpTo)));
+        }
+
+        private int indexAfter(long timestamp) {
+            int low = 0;
+            int high = entries.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (entries.get(middle).getTimestamp() <= timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static String getResourceType(QName type) {
+        if (ContentModel.TYPE_PERSON.equals(type)) {
+            return "User";
+        }
+        if (ContentModel.TYPE_AUTHORITY_CONTAINER.equals(type)) {
+            return "Group";
+        }
+        return null;
+    }
+
+    private static long toBucket(long timestamp) {
+        return timestamp / BUCKET_MILLIS;
+    }
+}
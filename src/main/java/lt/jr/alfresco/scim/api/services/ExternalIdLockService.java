@@ -0,0 +1,14 @@
+package lt.jr.alfresco.scim.api.services;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+public interface ExternalIdLockService {
+
+    /**
+     * Runs the work while holding the node local and cluster wide locks of all given external ids.
+     * Must be called outside of the transaction doing the work, so the locks are held until it has committed.
+     * Blank external ids are ignored.
+     */
+    <T> T doWithLocks(Collection<String> externalIds, Supplier<T> work);
+}
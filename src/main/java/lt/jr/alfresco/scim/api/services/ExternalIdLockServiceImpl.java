@@ -0,0 +1,99 @@
+package lt.jr.alfresco.scim.api.services;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes upserts of the same identity. Threads of this node queue on a striped lock first, so only one of
+ * them at a time competes for the {@link JobLockService} lock that serializes the cluster. Upserts of different
+ * external ids take different locks and run in parallel. Locks are always taken in external id order, so
+ * callers locking several ids cannot deadlock each other.
+ */
+@Service("ExternalIdLockService")
+public class ExternalIdLockServiceImpl implements ExternalIdLockService {
+
+    private static final String LOCK_NAME_PREFIX = "scimExternalId.";
+
+    private final Logger logger = LoggerFactory.getLogger(ExternalIdLockServiceImpl.class);
+
+    @Autowired
+    @Qualifier("jobLockService")
+    private JobLockService jobLockService;
+    @Value("${scim.externalIdLock.stripes}")
+    private int stripes;
+    @Value("${scim.externalIdLock.timeToLiveMs}")
+    private long timeToLiveMs;
+    @Value("${scim.externalIdLock.retryWaitMs}")
+    private long retryWaitMs;
+    @Value("${scim.externalIdLock.retryCount}")
+    private int retryCount;
+
+    private Striped<Lock> localLocks;
+
+    @PostConstruct
+    public void init() {
+        localLocks = Striped.lock(stripes);
+    }
+
+    @Override
+    public <T> T doWithLocks(Collection<String> externalIds, Supplier<T> work) {
+        SortedSet<String> keys = new TreeSet<>();
+        externalIds.stream()
+                .map(ExternalIdResolver::normalize)
+                .filter(StringUtils::isNotEmpty)
+                .forEach(keys::add);
+        if (keys.isEmpty()) {
+            return work.get();
+        }
+        List<Lock> acquiredLocalLocks = new ArrayList<>();
+        List<QName> lockNames = new ArrayList<>();
+        List<String> lockTokens = new ArrayList<>();
+        try {
+            for (Lock lock : localLocks.bulkGet(keys)) {
+                lock.lock();
+                acquiredLocalLocks.add(lock);
+            }
+            for (String key : keys) {
+                QName lockName = getLockName(key);
+                lockTokens.add(jobLockService.getLock(lockName, timeToLiveMs, retryWaitMs, retryCount));
+                lockNames.add(lockName);
+            }
+            return work.get();
+        } finally {
+            for (int i = lockTokens.size() - 1; i >= 0; i--) {
+                if (!jobLockService.releaseLock(lockTokens.get(i), lockNames.get(i))) {
+                    logger.warn("Lock {} expired before it was released", lockNames.get(i).getLocalName());
+                }
+            }
+            for (int i = acquiredLocalLocks.size() - 1; i >= 0; i--) {
+                acquiredLocalLocks.get(i).unlock();
+            }
+        }
+    }
+
+    private static QName getLockName(String key) {
+        // external ids can be long and contain dots, which JobLockService treats as hierarchy separators
+        String hash = Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+        return QName.createQName(ScimModel.URI, LOCK_NAME_PREFIX + hash);
+    }
+}
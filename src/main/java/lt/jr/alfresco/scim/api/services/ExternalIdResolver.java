@@ -0,0 +1,17 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.Locale;
+import java.util.Optional;
+
+public interface ExternalIdResolver {
+
+    Optional<NodeRef> resolve(String externalId);
+
+    void evict(String externalId);
+
+    static String normalize(String externalId) {
+        return externalId == null ? null : externalId.trim().toLowerCase(Locale.ROOT);
+    }
+}
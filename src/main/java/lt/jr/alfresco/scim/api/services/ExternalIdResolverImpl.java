@@ -0,0 +1,115 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+@Service("ExternalIdResolver")
+public class ExternalIdResolverImpl implements ExternalIdResolver {
+
+    private static final String AUTHORITY_BY_EXTERNAL_ID_AFTS = "ASPECT:\"scim:ExternalAuthority\" AND =scim:externalIdLower:\"%s\"";
+    private static final String AUTHORITY_BY_EXTERNAL_ID_LEGACY_CMIS = "SELECT cmis:objectId FROM scim:ExternalAuthority WHERE LOWER(scim:externalId)='%s'";
+
+    private final Logger logger = LoggerFactory.getLogger(ExternalIdResolverImpl.class);
+
+    @Autowired
+    @Qualifier("scimSearchService")
+    private SearchService searchService;
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("scimExternalIdCache")
+    private SimpleCache<String, NodeRef> externalIdCache;
+    @Value("${scim.externalId.legacyLookup.enabled}")
+    private boolean legacyLookupEnabled;
+
+    @Override
+    public Optional<NodeRef> resolve(String externalId) {
+        String key = ExternalIdResolver.normalize(externalId);
+        if (StringUtils.isEmpty(key)) {
+            return Optional.empty();
+        }
+        NodeRef cached = externalIdCache.get(key);
+        if (cached != null) {
+            if (nodeService.exists(cached)) {
+                return Optional.of(cached);
+            }
+            externalIdCache.remove(key);
+        }
+        Optional<NodeRef> nodeRef = findByNormalizedExternalId(key);
+        if (!nodeRef.isPresent() && legacyLookupEnabled) {
+            nodeRef = findByLegacyQuery(key);
+        }
+        nodeRef.ifPresent(ref -> externalIdCache.put(key, ref));
+        return nodeRef;
+    }
+
+    @Override
+    public void evict(String externalId) {
+        String key = ExternalIdResolver.normalize(externalId);
+        if (StringUtils.isNotEmpty(key)) {
+            externalIdCache.remove(key);
+        }
+    }
+
+    private Optional<NodeRef> findByNormalizedExternalId(String key) {
+        SearchParameters sp = new SearchParameters();
+        sp.setQuery(String.format(AUTHORITY_BY_EXTERNAL_ID_AFTS, escapePhrase(key)));
+        sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        sp.setQueryConsistency(QueryConsistency.TRANSACTIONAL);
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setMaxItems(1);
+        return executeQuery(sp).stream().findAny();
+    }
+
+    /**
+     * Authorities synchronized before scim:externalIdLower existed can only be found through the index.
+     * Whatever is found here is backfilled so that the next lookup is served by the transactional query.
+     */
+    private Optional<NodeRef> findByLegacyQuery(String key) {
+        SearchParameters sp = new SearchParameters();
+        sp.setQuery(String.format(AUTHORITY_BY_EXTERNAL_ID_LEGACY_CMIS, key.replace("\\", "\\\\").replace("'", "\\'")));
+        sp.setLanguage(SearchService.LANGUAGE_CMIS_ALFRESCO);
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        Optional<NodeRef> nodeRef = executeQuery(sp).stream().findAny();
+        nodeRef.ifPresent(ref -> {
+            logger.info("Backfilling normalized external id for {}", ref);
+            nodeService.setProperty(ref, ScimModel.PROP_EXTERNAL_ID_LOWER, key);
+        });
+        return nodeRef;
+    }
+
+    private List<NodeRef> executeQuery(SearchParameters sp) {
+        ResultSet results = null;
+        try {
+            results = searchService.query(sp);
+            return results == null ? Collections.emptyList() : results.getNodeRefs();
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+    }
+
+    private static String escapePhrase(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,14 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.Collection;
+
+public interface GroupMembersService {
+
+    void addMembers(NodeRef groupRef, Collection<String> memberIds);
+
+    void removeMembers(NodeRef groupRef, Collection<String> memberIds);
+
+    void replaceMembers(NodeRef groupRef, Collection<String> memberIds);
+}
@@ -0,0 +1,157 @@
+package lt.jr.alfresco.scim.api.services;
+
+import com.google.common.collect.Lists;
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.alfresco.service.transaction.TransactionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Applies membership changes as deltas. Only the members being added or removed are resolved to authority
+ * names, in batches whose nodes are bulk loaded into the node cache first, and all batches share one transaction.
+ */
+@Service("GroupMembersService")
+public class GroupMembersServiceImpl implements GroupMembersService {
+
+    private final Logger logger = LoggerFactory.getLogger(GroupMembersServiceImpl.class);
+
+    @Autowired
+    @Qualifier("scimAuthorityService")
+    private AuthorityService authorityService;
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("TransactionService")
+    private TransactionService transactionService;
+    @Autowired
+    @Qualifier("nodeDAO")
+    private NodeDAO nodeDAO;
+    @Autowired
+    @Qualifier("AuthorityResolver")
+    private AuthorityResolver authorityResolver;
+    @Autowired
+    @Qualifier("UserGroupsService")
+    private UserGroupsService userGroupsService;
+    @Value("${scim.members.batchSize}")
+    private int batchSize;
+
+    @Override
+    public void addMembers(NodeRef groupRef, Collection<String> memberIds) {
+        transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            String groupName = authorityResolver.getAuthorityName(groupRef);
+            List<NodeRef> toAdd = toNodeRefs(memberIds).stream()
+                    .filter(memberRef -> !isMember(groupRef, memberRef))
+                    .collect(Collectors.toList());
+            applyInBatches(toAdd, groupName, authorityService::addAuthority);
+            logger.info("Added {} member(s) to group {}", toAdd.size(), groupName);
+            touch(groupRef, toAdd);
+            return null;
+        }, false, false);
+    }
+
+    @Override
+    public void removeMembers(NodeRef groupRef, Collection<String> memberIds) {
+        transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            String groupName = authorityResolver.getAuthorityName(groupRef);
+            List<NodeRef> toRemove = toNodeRefs(memberIds).stream()
+                    .filter(memberRef -> isMember(groupRef, memberRef))
+                    .collect(Collectors.toList());
+            applyInBatches(toRemove, groupName, authorityService::removeAuthority);
+            logger.info("Removed {} member(s) from group {}", toRemove.size(), groupName);
+            touch(groupRef, toRemove);
+            return null;
+        }, false, false);
+    }
+
+    @Override
+    public void replaceMembers(NodeRef groupRef, Collection<String> memberIds) {
+        transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            String groupName = authorityResolver.getAuthorityName(groupRef);
+            Set<NodeRef> requested = new LinkedHashSet<>(toNodeRefs(memberIds));
+            Set<NodeRef> current = getMemberRefs(groupRef);
+            List<NodeRef> toRemove = current.stream()
+                    .filter(memberRef -> !requested.contains(memberRef))
+                    .collect(Collectors.toList());
+            List<NodeRef> toAdd = requested.stream()
+                    .filter(memberRef -> !current.contains(memberRef))
+                    .collect(Collectors.toList());
+            applyInBatches(toRemove, groupName, authorityService::removeAuthority);
+            applyInBatches(toAdd, groupName, authorityService::addAuthority);
+            logger.info("Updated group {} members: {} added, {} removed, {} total", groupName, toAdd.size(),
+                    toRemove.size(), requested.size());
+            touch(groupRef, toAdd.isEmpty() ? toRemove : toAdd);
+            return null;
+        }, false, false);
+    }
+
+    private void applyInBatches(List<NodeRef> memberRefs, String groupName, BiConsumer<String, String> operation) {
+        for (List<NodeRef> batch : Lists.partition(memberRefs, batchSize)) {
+            nodeDAO.cacheNodes(batch);
+            for (NodeRef memberRef : batch) {
+                if (!nodeService.exists(memberRef)) {
+                    logger.warn("Skipping unknown member {} of group {}", memberRef.getId(), groupName);
+                    continue;
+                }
+                String memberName = authorityResolver.getAuthorityName(memberRef);
+                if (memberName != null) {
+                    operation.accept(groupName, memberName);
+                    userGroupsService.evict(memberName);
+                }
+            }
+        }
+    }
+
+    private Set<NodeRef> getMemberRefs(NodeRef groupRef) {
+        return nodeService.getChildAssocs(groupRef, ContentModel.ASSOC_MEMBER, RegexQNamePattern.MATCH_ALL, false)
+                .stream()
+                .map(ChildAssociationRef::getChildRef)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Looks at the groups of the member rather than at the members of the group, so the cost does not
+     * grow with the size of the group.
+     */
+    private boolean isMember(NodeRef groupRef, NodeRef memberRef) {
+        if (!nodeService.exists(memberRef)) {
+            return false;
+        }
+        return nodeService.getParentAssocs(memberRef, ContentModel.ASSOC_MEMBER, RegexQNamePattern.MATCH_ALL)
+                .stream()
+                .anyMatch(assoc -> groupRef.equals(assoc.getParentRef()));
+    }
+
+    private void touch(NodeRef groupRef, List<NodeRef> changedMembers) {
+        if (!changedMembers.isEmpty()) {
+            nodeService.setProperty(groupRef, ScimModel.PROP_LAST_SYNC_DATE, new Date());
+        }
+    }
+
+    private static List<NodeRef> toNodeRefs(Collection<String> memberIds) {
+        return memberIds.stream()
+                .distinct()
+                .map(id -> new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id))
+                .collect(Collectors.toList());
+    }
+}
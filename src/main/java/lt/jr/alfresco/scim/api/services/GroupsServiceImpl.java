@@ -1,20 +1,56 @@
 package lt.jr.alfresco.scim.api.services;
 
+import de.captaingoldfish.scim.sdk.common.exceptions.ConflictException;
 import lt.jr.alfresco.scim.api.model.GroupInfo;
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.QueryConsistency;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.cmr.security.AuthorityService;
 import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.service.cmr.security.PermissionService;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 @Service("GroupsService")
 public class GroupsServiceImpl implements GroupsService{
 
+    private final Logger logger = LoggerFactory.getLogger(GroupsServiceImpl.class);
+
+    private static final String ATTR_KEY_SCIM = "lt.jr.alfresco.scim";
+    private static final String ATTR_KEY_GROUP_NAME_SUFFIX = "groupNameSuffix";
+    private static final Pattern INVALID_CHARACTERS = Pattern.compile("[^a-zA-Z0-9 \\-_]");
+    private static final Pattern SEPARATORS = Pattern.compile("[ \\-]");
+
     @Autowired
-    @Qualifier("AuthorityService")
+    @Qualifier("scimAuthorityService")
     private AuthorityService authorityService;
+    @Autowired
+    @Qualifier("AttributeService")
+    private AttributeService attributeService;
+    @Autowired
+    @Qualifier("scimSearchService")
+    private SearchService searchService;
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+    @Value("${scim.groups.nameSuffix.max}")
+    private int maxSuffix;
+    @Value("${scim.groups.nameSuffix.maxProbes}")
+    private int maxProbes;
 
     @Override
     public GroupInfo createGroup(String displayName) {
@@ -28,13 +64,7 @@ public class GroupsServiceImpl implements GroupsService{
         String shortName = StringUtils.substring(sanitizedName, 0, 30);
 
         if (authorityService.authorityExists(getGroupName(shortName))) {
-            int suffix = 0;
-
-            do {
-                suffix++;
-            } while (authorityService.authorityExists(getGroupName(shortName + "_" + suffix)));
-
-            shortName = shortName + "_" + suffix;
+            shortName = shortName + "_" + allocateSuffix(shortName);
         }
 
         String fullName = authorityService.createAuthority(AuthorityType.GROUP, shortName, displayName, authorityService.getDefaultZones());
@@ -42,14 +72,66 @@ public class GroupsServiceImpl implements GroupsService{
         return new GroupInfo(sanitizedName, displayName, fullName);
     }
 
+    /**
+     * Allocates the next free numeric suffix for a taken short name from a counter persisted per short name.
+     * The counter is seeded once from the highest existing suffix. Concurrent creates with the same short name
+     * update the same attribute row, so all but one fail with a concurrency failure and are retried by the
+     * surrounding retrying transaction. Fails with 409 when the suffix would exceed {@code maxSuffix} or no free
+     * suffix is found within {@code maxProbes} attempts.
+     */
+    private int allocateSuffix(String shortName) {
+        Integer lastSuffix = (Integer) attributeService.getAttribute(ATTR_KEY_SCIM, ATTR_KEY_GROUP_NAME_SUFFIX, shortName);
+        int suffix = lastSuffix == null ? findHighestSuffix(shortName) : lastSuffix;
+        // groups created outside SCIM do not advance the counter
+        int probes = 0;
+        do {
+            suffix++;
+            if (suffix > maxSuffix || ++probes > maxProbes) {
+                throw new ConflictException("No free group name for '" + shortName + "' within suffix "
+                        + Math.min(suffix - 1, maxSuffix));
+            }
+        } while (authorityService.authorityExists(getGroupName(shortName + "_" + suffix)));
+        attributeService.setAttribute(suffix, ATTR_KEY_SCIM, ATTR_KEY_GROUP_NAME_SUFFIX, shortName);
+        return suffix;
+    }
+
+    private int findHighestSuffix(String shortName) {
+        String groupName = getGroupName(shortName);
+        Pattern suffixPattern = Pattern.compile(Pattern.quote(groupName + "_") + "(\\d{1,9})");
+        SearchParameters sp = new SearchParameters();
+        sp.setQuery("TYPE:\"cm:authorityContainer\" AND =cm:authorityName:\"" + groupName + "_*\"");
+        sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        sp.setQueryConsistency(QueryConsistency.TRANSACTIONAL_IF_POSSIBLE);
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        int highest = 0;
+        ResultSet results = null;
+        try {
+            results = searchService.query(sp);
+            if (results == null) {
+                return highest;
+            }
+            for (NodeRef groupRef : results.getNodeRefs()) {
+                String authorityName = (String) nodeService.getProperty(groupRef, ContentModel.PROP_AUTHORITY_NAME);
+                Matcher matcher = suffixPattern.matcher(StringUtils.defaultString(authorityName));
+                if (matcher.matches()) {
+                    highest = Math.max(highest, Integer.parseInt(matcher.group(1)));
+                }
+            }
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+        logger.debug("Seeding group name suffix counter for {} with {}", shortName, highest);
+        return highest;
+    }
+
     private String sanitizeAuthorityShortName(String name) {
         if (StringUtils.isBlank(name)) {
             return name;
         }
-        return name.trim().replaceAll("[^a-zA-Z0-9 \\-_]", "")
-                .trim()
-                .replaceAll(" ", "_")
-                .replaceAll("-", "_");
+        String valid = INVALID_CHARACTERS.matcher(name.trim()).replaceAll("").trim();
+        return SEPARATORS.matcher(valid).replaceAll("_");
     }
 
     private String getGroupName(String shortName) {
@@ -0,0 +1,14 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.List;
+
+public interface NodeBulkLoader {
+
+    /**
+     * Loads the nodes together with their properties and aspects into the node cache in bulk, so that
+     * subsequent {@code NodeService} reads of these nodes do not hit the database one node at a time.
+     */
+    void preload(List<NodeRef> nodeRefs);
+}
@@ -0,0 +1,30 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service("NodeBulkLoader")
+public class NodeBulkLoaderImpl implements NodeBulkLoader {
+
+    private final Logger logger = LoggerFactory.getLogger(NodeBulkLoaderImpl.class);
+
+    @Autowired
+    @Qualifier("nodeDAO")
+    private NodeDAO nodeDAO;
+
+    @Override
+    public void preload(List<NodeRef> nodeRefs) {
+        if (nodeRefs.isEmpty()) {
+            return;
+        }
+        logger.debug("Preloading {} nodes", nodeRefs.size());
+        nodeDAO.cacheNodes(nodeRefs);
+    }
+}
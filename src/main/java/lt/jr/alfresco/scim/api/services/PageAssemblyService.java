@@ -0,0 +1,16 @@
+package lt.jr.alfresco.scim.api.services;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public interface PageAssemblyService {
+
+    /**
+     * Turns the entries of one list page into resources, in the order of the entries. The preloader is called
+     * with every group of entries mapped together, before they are mapped. In parallel mode groups of entries
+     * are mapped concurrently, each in its own read-only transaction as the current user; callers in a
+     * read-write transaction, whose changes workers could not see, are always served sequentially.
+     */
+    <T, R> List<R> assemble(List<T> entries, Consumer<List<T>> preloader, Function<T, R> mapper);
+}
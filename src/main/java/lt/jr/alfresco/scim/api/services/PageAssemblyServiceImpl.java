@@ -0,0 +1,181 @@
+package lt.jr.alfresco.scim.api.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lt.jr.alfresco.scim.api.metrics.RepositoryCallBudget;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.service.transaction.TransactionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Assembles list pages sequentially, or with {@code scim.pageAssembly.parallel.enabled} splits a page into at
+ * most {@code requestThreads} chunks of at least {@code minChunkSize} entries that are mapped concurrently, so
+ * that one large page never occupies every worker. Workers run on a pool of {@code workerThreads}, or on virtual
+ * threads when the JVM has them and they are enabled, in which case at most {@code workerThreads} chunks run at
+ * once as well. Repository calls of the workers are added to the {@link RepositoryCallBudget} of the request.
+ */
+@Service("PageAssemblyService")
+public class PageAssemblyServiceImpl implements PageAssemblyService, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(PageAssemblyServiceImpl.class);
+
+    @Autowired
+    @Qualifier("TransactionService")
+    private TransactionService transactionService;
+    @Value("${scim.pageAssembly.parallel.enabled}")
+    private boolean parallelEnabled;
+    @Value("${scim.pageAssembly.workerThreads}")
+    private int workerThreads;
+    @Value("${scim.pageAssembly.requestThreads}")
+    private int requestThreads;
+    @Value("${scim.pageAssembly.minChunkSize}")
+    private int minChunkSize;
+    @Value("${scim.pageAssembly.virtualThreads}")
+    private boolean virtualThreads;
+
+    private ExecutorService executorService;
+    /**
+     * Bounds the chunks running on virtual threads, which are not bounded by a pool, to {@code workerThreads}.
+     */
+    private Semaphore virtualThreadPermits;
+
+    @PostConstruct
+    public void init() {
+        if (!parallelEnabled) {
+            return;
+        }
+        if (virtualThreads) {
+            executorService = newVirtualThreadExecutor();
+            if (executorService != null) {
+                virtualThreadPermits = new Semaphore(workerThreads);
+            }
+        }
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("scim-page-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public <T, R> List<R> assemble(List<T> entries, Consumer<List<T>> preloader, Function<T, R> mapper) {
+        String user = AuthenticationUtil.getRunAsUser();
+        int minChunk = Math.max(1, minChunkSize);
+        if (executorService == null || user == null || entries.size() < 2 * minChunk
+                || AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_READ_WRITE) {
+            preloader.accept(entries);
+            return entries.stream().map(mapper).collect(Collectors.toList());
+        }
+        int chunks = Math.min(Math.max(1, Math.min(requestThreads, workerThreads)), entries.size() / minChunk);
+        int chunkSize = (entries.size() + chunks - 1) / chunks;
+        // every chunk preloads its own nodes, what the request transaction preloaded is not shared before it commits
+        List<Future<Chunk<R>>> futures = new ArrayList<>(chunks);
+        for (List<T> chunk : Lists.partition(entries, chunkSize)) {
+            futures.add(executorService.submit(() -> AuthenticationUtil.runAs(
+                    () -> assembleChunkWithPermit(chunk, preloader, mapper), user)));
+        }
+        List<R> resources = new ArrayList<>(entries.size());
+        try {
+            for (Future<Chunk<R>> future : futures) {
+                Chunk<R> chunk = future.get();
+                resources.addAll(chunk.resources);
+                RepositoryCallBudget.add(chunk.repositoryCalls);
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Page assembly was interrupted", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Page assembly failed", e.getCause());
+        }
+        return resources;
+    }
+
+    private <T, R> Chunk<R> assembleChunkWithPermit(List<T> entries, Consumer<List<T>> preloader, Function<T, R> mapper)
+            throws InterruptedException {
+        if (virtualThreadPermits == null) {
+            return assembleChunk(entries, preloader, mapper);
+        }
+        virtualThreadPermits.acquire();
+        try {
+            return assembleChunk(entries, preloader, mapper);
+        } finally {
+            virtualThreadPermits.release();
+        }
+    }
+
+    private <T, R> Chunk<R> assembleChunk(List<T> entries, Consumer<List<T>> preloader, Function<T, R> mapper) {
+        RepositoryCallBudget.start();
+        List<R> resources;
+        try {
+            resources = transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                preloader.accept(entries);
+                return entries.stream().map(mapper).collect(Collectors.toList());
+            }, true, false);
+        } catch (RuntimeException e) {
+            RepositoryCallBudget.finish();
+            throw e;
+        }
+        return new Chunk<>(resources, RepositoryCallBudget.finish());
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor is looked up reflectively, the module also runs on JVMs without them.
+     */
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            logger.info("Assembling SCIM list pages on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads are not available, assembling SCIM list pages on {} threads", workerThreads);
+            return null;
+        }
+    }
+
+    private static class Chunk<R> {
+
+        private final List<R> resources;
+        private final Map<String, Integer> repositoryCalls;
+
+        Chunk(List<R> resources, Map<String, Integer> repositoryCalls) {
+            this.resources = resources;
+            this.repositoryCalls = repositoryCalls;
+        }
+    }
+}
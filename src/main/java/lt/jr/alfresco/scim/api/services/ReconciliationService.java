@@ -0,0 +1,10 @@
+package lt.jr.alfresco.scim.api.services;
+
+public interface ReconciliationService {
+
+    /**
+     * Disables users the identity provider stopped synchronizing, removes empty and orphaned SCIM groups and
+     * purges the renamed emails of deleted users once their grace period is over.
+     */
+    void reconcile();
+}
@@ -0,0 +1,203 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.jobs.KeysetSearchWorkProvider;
+import lt.jr.alfresco.scim.api.model.ScimModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.cmr.security.AuthorityService;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.logging.LogFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Each pass walks the matching scim:ExternalAuthority nodes with a {@link BatchProcessor}, so nodes are changed
+ * by several worker threads in small transactions. Workers re-check their node before changing it, because the
+ * search index may lag behind the repository.
+ */
+@Service("ReconciliationService")
+public class ReconciliationServiceImpl implements ReconciliationService {
+
+    private static final String STALE_USERS_QUERY = "TYPE:\"cm:person\" AND ASPECT:\"scim:ExternalAuthority\""
+            + " AND NOT ASPECT:\"cm:personDisabled\" AND scim:lastSyncDate:[MIN TO \"%s\"]";
+    private static final String STALE_GROUPS_QUERY = "TYPE:\"cm:authorityContainer\" AND ASPECT:\"scim:ExternalAuthority\""
+            + " AND scim:lastSyncDate:[MIN TO \"%s\"]";
+    private static final String DELETED_USERS_QUERY = "TYPE:\"cm:person\" AND ASPECT:\"scim:ExternalAuthority\""
+            + " AND ASPECT:\"cm:personDisabled\"";
+    /**
+     * Emails of deleted users are prefixed with the deletion time by {@code UserHandler.deleteResource}.
+     */
+    private static final Pattern DELETED_EMAIL = Pattern.compile("^(\\d{10,})_.+$");
+    private static final String STALE_GROUPS_REPORT = "report";
+    private static final String STALE_GROUPS_DELETE = "delete";
+
+    private final Logger logger = LoggerFactory.getLogger(ReconciliationServiceImpl.class);
+
+    @Autowired
+    @Qualifier("NodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("SearchService")
+    private SearchService searchService;
+    @Autowired
+    @Qualifier("AuthorityService")
+    private AuthorityService authorityService;
+    @Autowired
+    @Qualifier("TransactionService")
+    private TransactionService transactionService;
+    @Autowired
+    @Qualifier("AuthorityResolver")
+    private AuthorityResolver authorityResolver;
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+    @Value("${scim.reconciliation.enabled}")
+    private boolean enabled;
+    @Value("${scim.reconciliation.workerThreads}")
+    private int workerThreads;
+    @Value("${scim.reconciliation.batchSize}")
+    private int batchSize;
+    @Value("${scim.reconciliation.staleUserDays}")
+    private int staleUserDays;
+    @Value("${scim.reconciliation.emptyGroupGraceHours}")
+    private int emptyGroupGraceHours;
+    @Value("${scim.reconciliation.staleGroupDays}")
+    private int staleGroupDays;
+    @Value("${scim.reconciliation.staleGroupsMode}")
+    private String staleGroupsMode;
+    @Value("${scim.reconciliation.deletedEmailGraceDays}")
+    private int deletedEmailGraceDays;
+
+    @Override
+    public void reconcile() {
+        if (!enabled) {
+            logger.debug("SCIM reconciliation is disabled");
+            return;
+        }
+        // the work providers search and page as the system user too, not only the workers
+        AuthenticationUtil.runAsSystem(() -> {
+            long now = System.currentTimeMillis();
+            disableStaleUsers(new Date(now - TimeUnit.DAYS.toMillis(staleUserDays)));
+            removeGroups(new Date(now - TimeUnit.HOURS.toMillis(emptyGroupGraceHours)),
+                    new Date(now - TimeUnit.DAYS.toMillis(staleGroupDays)));
+            purgeDeletedEmails(now - TimeUnit.DAYS.toMillis(deletedEmailGraceDays));
+            return null;
+        });
+    }
+
+    private void disableStaleUsers(Date syncedBefore) {
+        process("SCIM stale users", String.format(STALE_USERS_QUERY, ISO8601DateFormat.format(syncedBefore)),
+                new SystemWorker() {
+                    @Override
+                    public void process(NodeRef personRef) {
+                        if (!nodeService.exists(personRef)
+                                || nodeService.hasAspect(personRef, ContentModel.ASPECT_PERSON_DISABLED)
+                                || !isSyncedBefore(personRef, syncedBefore)) {
+                            return;
+                        }
+                        logger.info("Disabling user {} not synchronized since {}", personRef.getId(), syncedBefore);
+                        nodeService.addAspect(personRef, ContentModel.ASPECT_PERSON_DISABLED, null);
+                    }
+                });
+    }
+
+    /**
+     * Empty groups are removed after a short grace period, so groups created right before their members are added
+     * survive. Groups with members that the identity provider has not synchronized for the stale period are only
+     * reported or removed when staleGroupsMode asks for it, because removing them also drops their memberships
+     * and permissions.
+     */
+    private void removeGroups(Date emptySyncedBefore, Date staleSyncedBefore) {
+        boolean reportStale = STALE_GROUPS_REPORT.equalsIgnoreCase(staleGroupsMode);
+        boolean deleteStale = STALE_GROUPS_DELETE.equalsIgnoreCase(staleGroupsMode);
+        Date syncedBefore = (reportStale || deleteStale) && staleSyncedBefore.after(emptySyncedBefore)
+                ? staleSyncedBefore
+                : emptySyncedBefore;
+        process("SCIM empty and orphaned groups", String.format(STALE_GROUPS_QUERY, ISO8601DateFormat.format(syncedBefore)),
+                new SystemWorker() {
+                    @Override
+                    public void process(NodeRef groupRef) {
+                        if (!nodeService.exists(groupRef)) {
+                            return;
+                        }
+                        boolean empty = isSyncedBefore(groupRef, emptySyncedBefore) && nodeService.getChildAssocs(groupRef,
+                                ContentModel.ASSOC_MEMBER, RegexQNamePattern.MATCH_ALL, 1, false).isEmpty();
+                        boolean orphaned = !empty && isSyncedBefore(groupRef, staleSyncedBefore);
+                        if (!empty && !(orphaned && (reportStale || deleteStale))) {
+                            return;
+                        }
+                        String groupName = (String) nodeService.getProperty(groupRef, ContentModel.PROP_AUTHORITY_NAME);
+                        if (orphaned && reportStale) {
+                            logger.info("Would remove orphaned group {} {} not synchronized since {}", groupName,
+                                    groupRef.getId(), staleSyncedBefore);
+                            return;
+                        }
+                        logger.info("Removing {} group {} {}", orphaned ? "orphaned" : "empty", groupName, groupRef.getId());
+                        authorityService.deleteAuthority(groupName);
+                        authorityResolver.evict(groupRef, groupName);
+                    }
+                });
+    }
+
+    private void purgeDeletedEmails(long deletedBefore) {
+        process("SCIM deleted user emails", DELETED_USERS_QUERY, new SystemWorker() {
+            @Override
+            public void process(NodeRef personRef) {
+                if (!nodeService.exists(personRef)) {
+                    return;
+                }
+                String email = (String) nodeService.getProperty(personRef, ContentModel.PROP_EMAIL);
+                Matcher matcher = DELETED_EMAIL.matcher(email == null ? "" : email);
+                if (matcher.matches() && Long.parseLong(matcher.group(1)) < deletedBefore) {
+                    logger.info("Purging email of deleted user {}", personRef.getId());
+                    nodeService.removeProperty(personRef, ContentModel.PROP_EMAIL);
+                }
+            }
+        });
+    }
+
+    private boolean isSyncedBefore(NodeRef nodeRef, Date date) {
+        Date lastSyncDate = (Date) nodeService.getProperty(nodeRef, ScimModel.PROP_LAST_SYNC_DATE);
+        return lastSyncDate != null && lastSyncDate.before(date);
+    }
+
+    private void process(String processName, String query, SystemWorker worker) {
+        BatchProcessor<NodeRef> batchProcessor = new BatchProcessor<>(processName,
+                transactionService.getRetryingTransactionHelper(),
+                new KeysetSearchWorkProvider(searchService, nodeService, transactionService.getRetryingTransactionHelper(),
+                        query, batchSize * workerThreads),
+                workerThreads, batchSize, applicationEventPublisher, LogFactory.getLog(ReconciliationServiceImpl.class),
+                1000);
+        batchProcessor.process(worker, true);
+        logger.info("{}: {} processed, {} failed", processName, batchProcessor.getSuccessfullyProcessedEntries(),
+                batchProcessor.getTotalErrors());
+    }
+
+    private abstract static class SystemWorker extends BatchProcessor.BatchProcessWorkerAdaptor<NodeRef> {
+
+        @Override
+        public void beforeProcess() {
+            AuthenticationUtil.setRunAsUserSystem();
+        }
+
+        @Override
+        public void afterProcess() {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package lt.jr.alfresco.scim.api.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Function;
+
+public interface ResourceVersionService {
+
+    /**
+     * Returns the current version of the resource node without loading its properties,
+     * or empty when the node does not exist.
+     */
+    Optional<String> getVersion(NodeRef nodeRef);
+
+    /**
+     * Returns the version of a resource that also represents other nodes, e.g. the groups listed in a User. It
+     * changes when the node changes, when one of the related nodes changes and when nodes are added to or removed
+     * from the related nodes. Empty when the node does not exist, the related nodes are only resolved otherwise.
+     */
+    Optional<String> getVersion(NodeRef nodeRef, Function<NodeRef, Collection<NodeRef>> relatedNodes);
+}
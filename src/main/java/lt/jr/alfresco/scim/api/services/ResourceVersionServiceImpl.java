@@ -0,0 +1,54 @@
+package lt.jr.alfresco.scim.api.services;
+
+import com.google.common.hash.Hashing;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Versions are the id of the transaction that last modified the node. The node status comes from the
+ * node cache, and every property or aspect change assigns the node to the writing transaction, so the
+ * version changes whenever the properties of the resource do. Group membership changes touch
+ * scim:lastSyncDate on the group node for the same reason. Membership changes do not write the member node,
+ * so a resource that lists related nodes, like the groups of a User, appends a hash of the ids and
+ * versions of those nodes.
+ */
+@Service("ResourceVersionService")
+public class ResourceVersionServiceImpl implements ResourceVersionService {
+
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+
+    @Override
+    public Optional<String> getVersion(NodeRef nodeRef) {
+        NodeRef.Status status = nodeService.getNodeStatus(nodeRef);
+        if (status == null || status.isDeleted()) {
+            return Optional.empty();
+        }
+        return Optional.of(Long.toString(status.getDbTxnId()));
+    }
+
+    @Override
+    public Optional<String> getVersion(NodeRef nodeRef, Function<NodeRef, Collection<NodeRef>> relatedNodes) {
+        return getVersion(nodeRef).map(version -> {
+            Collection<NodeRef> related = relatedNodes.apply(nodeRef);
+            if (related.isEmpty()) {
+                return version;
+            }
+            String relatedVersions = related.stream()
+                    .map(relatedRef -> relatedRef.getId() + ':' + getVersion(relatedRef).orElse(""))
+                    .sorted()
+                    .collect(Collectors.joining(","));
+            return version + '-' + Hashing.crc32().hashString(relatedVersions, StandardCharsets.UTF_8);
+        });
+    }
+}
@@ -0,0 +1,19 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.model.GroupMembership;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.List;
+
+public interface UserGroupsService {
+
+    /**
+     * Direct groups of the person, served from the reverse membership cache keyed by user name.
+     */
+    List<GroupMembership> getGroups(NodeRef personRef, String userName);
+
+    /**
+     * Evicts the cached groups of the authority now and again once the current transaction completes.
+     */
+    void evict(String authorityName);
+}
@@ -0,0 +1,58 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.model.GroupMembership;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolves the groups of a user from its cm:member parent associations instead of
+ * {@code AuthorityService.getContainingAuthorities}, and caches the result per user name.
+ * Entries are evicted when memberships change. The cache is transactional: memberships read by a transaction are
+ * only published to the shared cache on commit if no other transaction evicted the user meanwhile, so a concurrent
+ * reader can not keep the memberships it read before a change committed.
+ */
+@Service("UserGroupsService")
+public class UserGroupsServiceImpl implements UserGroupsService {
+
+    @Autowired
+    @Qualifier("scimNodeService")
+    private NodeService nodeService;
+    @Autowired
+    @Qualifier("scimUserGroupsCache")
+    private SimpleCache<String, ArrayList<GroupMembership>> userGroupsCache;
+
+    @Override
+    public List<GroupMembership> getGroups(NodeRef personRef, String userName) {
+        ArrayList<GroupMembership> cached = userGroupsCache.get(userName);
+        if (cached != null) {
+            return Collections.unmodifiableList(cached);
+        }
+        ArrayList<GroupMembership> groups = new ArrayList<>();
+        for (ChildAssociationRef assoc : nodeService.getParentAssocs(personRef, ContentModel.ASSOC_MEMBER, RegexQNamePattern.MATCH_ALL)) {
+            NodeRef groupRef = assoc.getParentRef();
+            groups.add(new GroupMembership(groupRef.getId(),
+                    (String) nodeService.getProperty(groupRef, ContentModel.PROP_AUTHORITY_DISPLAY_NAME)));
+        }
+        userGroupsCache.put(userName, groups);
+        return Collections.unmodifiableList(groups);
+    }
+
+    @Override
+    public void evict(String authorityName) {
+        if (authorityName == null) {
+            return;
+        }
+        userGroupsCache.remove(authorityName);
+    }
+}
@@ -0,0 +1,511 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.captaingoldfish.scim.sdk.common.constants.SchemaUris;
+import de.captaingoldfish.scim.sdk.common.constants.enums.HttpMethod;
+import de.captaingoldfish.scim.sdk.common.response.ErrorResponse;
+import de.captaingoldfish.scim.sdk.common.response.ScimResponse;
+import de.captaingoldfish.scim.sdk.server.endpoints.ResourceEndpoint;
+import lt.jr.alfresco.scim.api.metrics.RepositoryCallBudget;
+import lt.jr.alfresco.scim.api.services.ExternalIdLockService;
+import lt.jr.alfresco.scim.api.services.ExternalIdResolver;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Executes SCIM bulk requests. Operations are ordered into levels by their bulkId references, operations of
+ * one level run in parallel on the bulk executor, and each worker applies its operations in batches that share
+ * a single transaction. Operations of a level that target the same resource are kept in one batch in request
+ * order, so they never race each other. A batch containing a failing operation is rolled back and replayed one
+ * operation per transaction, so one bad operation never discards the work of its neighbours. Write conflicts are
+ * retried by the transaction helper like those of single requests. Once failOnErrors errors have been counted no
+ * further batches are started. Repository calls of the workers are added to the {@link RepositoryCallBudget} of
+ * the request.
+ */
+class BulkRequestProcessor {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Pattern BULK_ID_REFERENCE = Pattern.compile("bulkId:([^\"/\\s?]+)");
+
+    private final Logger logger = LoggerFactory.getLogger(BulkRequestProcessor.class);
+
+    private final ResourceEndpoint resourceEndpoint;
+    private final RetryingTransactionHelper retryingTransactionHelper;
+    private final ExternalIdLockService externalIdLockService;
+    private final ExecutorService executorService;
+    private final int batchSize;
+
+    BulkRequestProcessor(ResourceEndpoint resourceEndpoint, RetryingTransactionHelper retryingTransactionHelper,
+            ExternalIdLockService externalIdLockService, ExecutorService executorService, int batchSize) {
+        this.resourceEndpoint = resourceEndpoint;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.externalIdLockService = externalIdLockService;
+        this.executorService = executorService;
+        this.batchSize = batchSize;
+    }
+
+    ObjectNode process(String baseUrl, String body, Map<String, String> httpHeaders, int maxOperations) throws BulkRequestException {
+        JsonNode root;
+        try {
+            root = OBJECT_MAPPER.readTree(body);
+        } catch (IOException e) {
+            throw new BulkRequestException(400, "Bulk request is not valid json: " + e.getMessage());
+        }
+        JsonNode operationNodes = root == null ? null : root.get("Operations");
+        if (operationNodes == null || !operationNodes.isArray()) {
+            throw new BulkRequestException(400, "Bulk request must contain an Operations array");
+        }
+        if (operationNodes.size() > maxOperations) {
+            throw new BulkRequestException(413, "Bulk request contains " + operationNodes.size()
+                    + " operations, maxOperations is " + maxOperations);
+        }
+        int failOnErrors = root.path("failOnErrors").asInt(0);
+
+        List<BulkOperation> operations = new ArrayList<>(operationNodes.size());
+        for (JsonNode operationNode : operationNodes) {
+            operations.add(new BulkOperation(operations.size(), operationNode));
+        }
+        Map<String, BulkOperation> operationsByBulkId = new HashMap<>();
+        for (BulkOperation operation : operations) {
+            if (operation.bulkId != null && operationsByBulkId.putIfAbsent(operation.bulkId, operation) != null) {
+                throw new BulkRequestException(400, "Duplicate bulkId '" + operation.bulkId + "'");
+            }
+        }
+
+        BulkOperationResult[] results = new BulkOperationResult[operations.size()];
+        Map<Integer, List<BulkOperation>> levels = new HashMap<>();
+        for (BulkOperation operation : operations) {
+            int level = getLevel(operation, operationsByBulkId, new HashSet<>());
+            if (level < 0) {
+                results[operation.index] = BulkOperationResult.error(operation, 409,
+                        "Operation references an unknown or circular bulkId");
+            } else {
+                levels.computeIfAbsent(level, key -> new ArrayList<>()).add(operation);
+            }
+        }
+
+        Map<String, String> resolvedIds = new HashMap<>();
+        AtomicInteger errors = new AtomicInteger(countErrors(results));
+        String user = AuthenticationUtil.getFullyAuthenticatedUser();
+        for (int level = 0; levels.containsKey(level); level++) {
+            if (isStopped(errors, failOnErrors)) {
+                logger.info("Bulk request stopped after {} errors", errors.get());
+                break;
+            }
+            List<BulkOperation> runnable = new ArrayList<>();
+            for (BulkOperation operation : levels.get(level)) {
+                if (resolvedIds.keySet().containsAll(operation.references)) {
+                    runnable.add(operation);
+                } else {
+                    results[operation.index] = BulkOperationResult.error(operation, 409,
+                            "Operation references a bulkId whose operation failed");
+                    errors.incrementAndGet();
+                }
+            }
+            for (BulkOperationResult result : executeLevel(runnable, baseUrl, httpHeaders, resolvedIds, user,
+                    errors, failOnErrors)) {
+                results[result.operation.index] = result;
+                if (!result.isError() && result.operation.bulkId != null && result.resourceId != null) {
+                    resolvedIds.put(result.operation.bulkId, result.resourceId);
+                }
+            }
+        }
+        return toBulkResponse(results);
+    }
+
+    /**
+     * Batches still waiting for a worker when failOnErrors is reached are skipped, their operations are left out
+     * of the response as RFC 7644 allows for operations not processed.
+     */
+    private List<BulkOperationResult> executeLevel(List<BulkOperation> operations, String baseUrl,
+            Map<String, String> httpHeaders, Map<String, String> resolvedIds, String user, AtomicInteger errors,
+            int failOnErrors) throws BulkRequestException {
+        Map<String, String> levelIds = new HashMap<>(resolvedIds);
+        List<Future<BatchResults>> futures = new ArrayList<>();
+        for (List<BulkOperation> batch : partition(operations, levelIds)) {
+            futures.add(executorService.submit(() -> {
+                if (isStopped(errors, failOnErrors)) {
+                    return new BatchResults(Collections.emptyList(), Collections.emptyMap());
+                }
+                RepositoryCallBudget.start();
+                List<BulkOperationResult> batchResults;
+                try {
+                    batchResults = AuthenticationUtil.runAs(
+                            () -> executeBatch(batch, baseUrl, httpHeaders, levelIds), user);
+                } catch (RuntimeException e) {
+                    RepositoryCallBudget.finish();
+                    throw e;
+                }
+                errors.addAndGet((int) batchResults.stream().filter(BulkOperationResult::isError).count());
+                return new BatchResults(batchResults, RepositoryCallBudget.finish());
+            }));
+        }
+        List<BulkOperationResult> results = new ArrayList<>(operations.size());
+        try {
+            for (Future<BatchResults> future : futures) {
+                BatchResults batchResults = future.get();
+                results.addAll(batchResults.results);
+                RepositoryCallBudget.add(batchResults.repositoryCalls);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkRequestException(500, "Bulk request was interrupted");
+        } catch (ExecutionException e) {
+            logger.error("Bulk batch failed", e.getCause());
+            throw new BulkRequestException(500, "Bulk request failed: " + e.getCause().getMessage());
+        }
+        return results;
+    }
+
+    /**
+     * Splits the operations of a level into batches of about batchSize operations. Operations on the same resource,
+     * the same resolved path or for POST upserts the same externalId, go to the same batch in request order; a
+     * batch grows beyond batchSize rather than splitting them.
+     */
+    private List<List<BulkOperation>> partition(List<BulkOperation> operations, Map<String, String> resolvedIds) {
+        Map<String, List<BulkOperation>> byResource = new LinkedHashMap<>();
+        for (BulkOperation operation : operations) {
+            byResource.computeIfAbsent(getResourceKey(operation, resolvedIds), key -> new ArrayList<>()).add(operation);
+        }
+        List<List<BulkOperation>> batches = new ArrayList<>();
+        List<BulkOperation> batch = new ArrayList<>(batchSize);
+        for (List<BulkOperation> sameResource : byResource.values()) {
+            batch.addAll(sameResource);
+            if (batch.size() >= batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static String getResourceKey(BulkOperation operation, Map<String, String> resolvedIds) {
+        if (operation.method == HttpMethod.POST) {
+            // creates share the collection path, only creates of the same externalId target the same resource
+            return ExternalIds.fromResource(operation.data)
+                    .map(externalId -> "externalId:" + ExternalIdResolver.normalize(externalId))
+                    .orElse("operation:" + operation.index);
+        }
+        return operation.path == null
+                ? "operation:" + operation.index
+                : "path:" + StringUtils.removeEnd(resolveBulkIds(operation.path, resolvedIds), "/");
+    }
+
+    private static boolean isStopped(AtomicInteger errors, int failOnErrors) {
+        return failOnErrors > 0 && errors.get() >= failOnErrors;
+    }
+
+    /**
+     * POST operations are upserts keyed by externalId, so the batch holds the externalId locks of its creates
+     * until its transactions have committed.
+     */
+    private List<BulkOperationResult> executeBatch(List<BulkOperation> batch, String baseUrl,
+            Map<String, String> httpHeaders, Map<String, String> resolvedIds) {
+        List<String> externalIds = batch.stream()
+                .filter(operation -> operation.method == HttpMethod.POST)
+                .map(operation -> ExternalIds.fromResource(operation.data))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        return externalIdLockService.doWithLocks(externalIds,
+                () -> executeBatchInTransactions(batch, baseUrl, httpHeaders, resolvedIds));
+    }
+
+    private List<BulkOperationResult> executeBatchInTransactions(List<BulkOperation> batch, String baseUrl,
+            Map<String, String> httpHeaders, Map<String, String> resolvedIds) {
+        if (batch.size() > 1) {
+            try {
+                return retryingTransactionHelper.doInTransaction(() -> {
+                    List<BulkOperationResult> results = new ArrayList<>(batch.size());
+                    for (BulkOperation operation : batch) {
+                        BulkOperationResult result = execute(operation, baseUrl, httpHeaders, resolvedIds);
+                        if (result.isError()) {
+                            throw new OperationFailedException(result);
+                        }
+                        results.add(result);
+                    }
+                    return results;
+                }, false, true);
+            } catch (OperationFailedException e) {
+                logger.debug("Replaying bulk batch one operation per transaction");
+            } catch (RuntimeException e) {
+                if (RetryingTransactionHelper.extractRetryCause(e) == null) {
+                    throw e;
+                }
+                logger.debug("Replaying bulk batch one operation per transaction after {}", e.toString());
+            }
+        }
+        List<BulkOperationResult> results = new ArrayList<>(batch.size());
+        for (BulkOperation operation : batch) {
+            try {
+                results.add(retryingTransactionHelper.doInTransaction(() -> {
+                    BulkOperationResult result = execute(operation, baseUrl, httpHeaders, resolvedIds);
+                    if (result.isError()) {
+                        throw new OperationFailedException(result);
+                    }
+                    return result;
+                }, false, true));
+            } catch (OperationFailedException e) {
+                results.add(e.result);
+            } catch (RuntimeException e) {
+                if (RetryingTransactionHelper.extractRetryCause(e) == null) {
+                    throw e;
+                }
+                // the transaction helper ran out of retries
+                results.add(BulkOperationResult.error(operation, 409,
+                        "Operation conflicted with concurrent changes: " + e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    private BulkOperationResult execute(BulkOperation operation, String baseUrl, Map<String, String> httpHeaders,
+            Map<String, String> resolvedIds) {
+        if (operation.method == null || StringUtils.isBlank(operation.path)) {
+            return BulkOperationResult.error(operation, 400, "Bulk operation requires method and path");
+        }
+        Map<String, String> headers = httpHeaders;
+        if (operation.version != null) {
+            headers = new HashMap<>(httpHeaders);
+            headers.put("If-Match", operation.version);
+        }
+        String path = resolveBulkIds(operation.path, resolvedIds);
+        String data = operation.data == null ? null : resolveBulkIds(operation.data.toString(), resolvedIds);
+        ScimResponse response = resourceEndpoint.handleRequest(baseUrl + path, operation.method, data, headers);
+        if (response instanceof ErrorResponse) {
+            rethrowRetryableFailure((ErrorResponse) response);
+        }
+        if (response.getHttpStatus() >= 400) {
+            return new BulkOperationResult(operation, response.getHttpStatus(), null, null, null, response);
+        }
+        String resourceId = response.path("id").asText(null);
+        String location = response.getHttpHeaders().get("Location");
+        if (location == null && resourceId != null) {
+            location = baseUrl + (operation.method == HttpMethod.POST ? path + "/" + resourceId : path);
+        }
+        String version = response.path("meta").path("version").asText(null);
+        return new BulkOperationResult(operation, response.getHttpStatus(), resourceId, location, version, null);
+    }
+
+    /**
+     * The SDK turns every exception into an ErrorResponse, the write conflicts among them are rethrown inside the
+     * transaction callback so that the transaction helper retries the operation.
+     */
+    private void rethrowRetryableFailure(ErrorResponse response) {
+        Throwable cause = response.getScimException() == null ? null : response.getScimException().getCause();
+        if (cause instanceof RuntimeException && RetryingTransactionHelper.extractRetryCause(cause) != null) {
+            logger.debug("Retrying bulk operation after {}", cause.toString());
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private static int getLevel(BulkOperation operation, Map<String, BulkOperation> operationsByBulkId, Set<BulkOperation> visiting) {
+        if (operation.level != null) {
+            return operation.level;
+        }
+        if (!visiting.add(operation)) {
+            return -1;
+        }
+        int level = 0;
+        for (String reference : operation.references) {
+            BulkOperation dependency = operationsByBulkId.get(reference);
+            int dependencyLevel = dependency == null ? -1 : getLevel(dependency, operationsByBulkId, visiting);
+            if (dependencyLevel < 0) {
+                level = -1;
+                break;
+            }
+            level = Math.max(level, dependencyLevel + 1);
+        }
+        visiting.remove(operation);
+        operation.level = level;
+        return level;
+    }
+
+    private static String resolveBulkIds(String text, Map<String, String> resolvedIds) {
+        Matcher matcher = BULK_ID_REFERENCE.matcher(text);
+        StringBuffer resolved = new StringBuffer(text.length());
+        while (matcher.find()) {
+            String id = resolvedIds.get(matcher.group(1));
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(id == null ? matcher.group() : id));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    private static int countErrors(BulkOperationResult[] results) {
+        int errors = 0;
+        for (BulkOperationResult result : results) {
+            if (result != null && result.isError()) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    private static ObjectNode toBulkResponse(BulkOperationResult[] results) {
+        ObjectNode bulkResponse = OBJECT_MAPPER.createObjectNode();
+        bulkResponse.putArray("schemas").add(SchemaUris.BULK_RESPONSE_URI);
+        ArrayNode operations = bulkResponse.putArray("Operations");
+        for (BulkOperationResult result : results) {
+            if (result == null) {
+                continue;
+            }
+            ObjectNode operation = operations.addObject();
+            operation.put("method", result.operation.methodName);
+            if (result.operation.bulkId != null) {
+                operation.put("bulkId", result.operation.bulkId);
+            }
+            if (result.version != null) {
+                operation.put("version", result.version);
+            }
+            if (result.location != null) {
+                operation.put("location", result.location);
+            }
+            operation.put("status", String.valueOf(result.status));
+            if (result.errorResponse != null) {
+                operation.set("response", result.errorResponse);
+            }
+        }
+        return bulkResponse;
+    }
+
+    private static class BulkOperation {
+
+        private final int index;
+        private final String methodName;
+        private final HttpMethod method;
+        private final String path;
+        private final String bulkId;
+        private final String version;
+        private final JsonNode data;
+        private final Set<String> references = new LinkedHashSet<>();
+        private Integer level;
+
+        BulkOperation(int index, JsonNode node) {
+            this.index = index;
+            this.methodName = node.path("method").asText("").toUpperCase();
+            this.method = parseMethod(methodName);
+            this.path = node.path("path").asText(null);
+            this.bulkId = node.path("bulkId").asText(null);
+            this.version = node.path("version").asText(null);
+            this.data = node.get("data");
+            collectReferences(path);
+            if (data != null) {
+                collectReferences(data.toString());
+            }
+        }
+
+        private void collectReferences(String text) {
+            if (text == null) {
+                return;
+            }
+            Matcher matcher = BULK_ID_REFERENCE.matcher(text);
+            while (matcher.find()) {
+                references.add(matcher.group(1));
+            }
+        }
+
+        private static HttpMethod parseMethod(String methodName) {
+            try {
+                return HttpMethod.valueOf(methodName);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class BulkOperationResult {
+
+        private final BulkOperation operation;
+        private final int status;
+        private final String resourceId;
+        private final String location;
+        private final String version;
+        private final JsonNode errorResponse;
+
+        BulkOperationResult(BulkOperation operation, int status, String resourceId, String location, String version,
+                JsonNode errorResponse) {
+            this.operation = operation;
+            this.status = status;
+            this.resourceId = resourceId;
+            this.location = location;
+            this.version = version;
+            this.errorResponse = errorResponse;
+        }
+
+        static BulkOperationResult error(BulkOperation operation, int status, String detail) {
+            ObjectNode error = OBJECT_MAPPER.createObjectNode();
+            error.putArray("schemas").add(SchemaUris.ERROR_URI);
+            error.put("status", String.valueOf(status));
+            error.put("detail", detail);
+            return new BulkOperationResult(operation, status, null, null, null, error);
+        }
+
+        boolean isError() {
+            return status >= 400;
+        }
+    }
+
+    private static class BatchResults {
+
+        private final List<BulkOperationResult> results;
+        private final Map<String, Integer> repositoryCalls;
+
+        BatchResults(List<BulkOperationResult> results, Map<String, Integer> repositoryCalls) {
+            this.results = results;
+            this.repositoryCalls = repositoryCalls;
+        }
+    }
+
+    private static class OperationFailedException extends RuntimeException {
+
+        private final transient BulkOperationResult result;
+
+        OperationFailedException(BulkOperationResult result) {
+            super("Bulk operation failed with status " + result.status, null, false, false);
+            this.result = result;
+        }
+    }
+
+    static class BulkRequestException extends Exception {
+
+        private final int status;
+
+        BulkRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+}
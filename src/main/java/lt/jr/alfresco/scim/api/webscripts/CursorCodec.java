@@ -0,0 +1,75 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Encodes keyset positions as opaque cursors. A cursor carries the resource type and the last sort key
+ * of the previous page, signed with HMAC-SHA256 so clients can neither forge positions nor reuse a cursor
+ * for another resource type.
+ */
+class CursorCodec {
+
+    private static final char SEPARATOR = '\n';
+    private static final char SIGNATURE_SEPARATOR = '.';
+
+    private final Logger logger = LoggerFactory.getLogger(CursorCodec.class);
+
+    private final HashFunction signature;
+
+    CursorCodec(String secret) {
+        byte[] key;
+        if (StringUtils.isBlank(secret)) {
+            logger.warn("scim.cursor.secret is not set, cursors are only valid on this node until it is restarted");
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        } else {
+            key = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        signature = Hashing.hmacSha256(key);
+    }
+
+    String encode(String resource, String lastKey) {
+        byte[] payload = (resource + SEPARATOR + lastKey).getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + SIGNATURE_SEPARATOR + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * Returns the last sort key of the cursor, or empty when the cursor is malformed, forged or issued for another resource.
+     */
+    Optional<String> decode(String resource, String cursor) {
+        int separator = cursor.indexOf(SIGNATURE_SEPARATOR);
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        byte[] providedSignature;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(cursor.substring(0, separator));
+            providedSignature = decoder.decode(cursor.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (!MessageDigest.isEqual(sign(payload), providedSignature)) {
+            return Optional.empty();
+        }
+        String prefix = resource + SEPARATOR;
+        String value = new String(payload, StandardCharsets.UTF_8);
+        return value.startsWith(prefix) ? Optional.of(value.substring(prefix.length())) : Optional.empty();
+    }
+
+    private byte[] sign(byte[] payload) {
+        return signature.hashBytes(payload).asBytes();
+    }
+}
@@ -0,0 +1,63 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import de.captaingoldfish.scim.sdk.common.constants.EndpointPaths;
+import de.captaingoldfish.scim.sdk.common.response.ScimResponse;
+import lt.jr.alfresco.scim.api.model.CachedScimResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Keeps serialized /ServiceProviderConfig, /Schemas and /ResourceTypes responses per request URL.
+ * These resources only change when the endpoint is rebuilt, so they are rendered once and then
+ * served as plain bytes with a strong ETag.
+ */
+class DiscoveryResponseCache {
+
+    private static final Set<String> DISCOVERY_RESOURCES = ImmutableSet.of(
+            EndpointPaths.SERVICE_PROVIDER_CONFIG.substring(1),
+            EndpointPaths.SCHEMAS.substring(1),
+            EndpointPaths.RESOURCE_TYPES.substring(1));
+
+    private final Logger logger = LoggerFactory.getLogger(DiscoveryResponseCache.class);
+
+    private final ConcurrentMap<String, CachedScimResponse> responses = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    DiscoveryResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    static boolean isDiscoveryResource(String resource) {
+        return DISCOVERY_RESOURCES.contains(resource);
+    }
+
+    CachedScimResponse get(String requestUrl, Function<String, ScimResponse> loader) {
+        CachedScimResponse cached = responses.get(requestUrl);
+        if (cached != null) {
+            return cached;
+        }
+        CachedScimResponse response = toCachedResponse(loader.apply(requestUrl));
+        if (response.getHttpStatus() == 200 && responses.size() < maxEntries) {
+            logger.debug("Caching discovery response for {}", requestUrl);
+            responses.putIfAbsent(requestUrl, response);
+        }
+        return response;
+    }
+
+    private CachedScimResponse toCachedResponse(ScimResponse response) {
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        String eTag = "\"" + Hashing.sha256().hashBytes(body) + "\"";
+        Map<String, String> headers = new HashMap<>(response.getHttpHeaders());
+        return new CachedScimResponse(response.getHttpStatus(), headers, body, eTag);
+    }
+}
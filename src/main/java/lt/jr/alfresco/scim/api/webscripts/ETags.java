@@ -0,0 +1,28 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import org.apache.commons.lang3.StringUtils;
+
+final class ETags {
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private ETags() {
+    }
+
+    /**
+     * Checks an If-None-Match / If-Match header value against the current entity tag using weak comparison.
+     */
+    static boolean matches(String headerValue, String eTag) {
+        if (StringUtils.isBlank(headerValue) || eTag == null) {
+            return false;
+        }
+        String current = StringUtils.removeStart(eTag, WEAK_PREFIX);
+        for (String candidate : headerValue.split(",")) {
+            String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || current.equals(StringUtils.removeStart(trimmed, WEAK_PREFIX))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,41 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Extracts the externalId of a User or Group representation before it is handed to the SCIM SDK,
+ * so upserts can be locked per identity.
+ */
+final class ExternalIds {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String EXTERNAL_ID = "externalId";
+
+    private ExternalIds() {
+    }
+
+    static Optional<String> fromBody(String body) {
+        if (StringUtils.isBlank(body)) {
+            return Optional.empty();
+        }
+        try {
+            return fromResource(OBJECT_MAPPER.readTree(body));
+        } catch (IOException e) {
+            // reported as invalid request by the SDK
+            return Optional.empty();
+        }
+    }
+
+    static Optional<String> fromResource(JsonNode resource) {
+        if (resource == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(resource.path(EXTERNAL_ID).textValue())
+                .filter(StringUtils::isNotBlank);
+    }
+}
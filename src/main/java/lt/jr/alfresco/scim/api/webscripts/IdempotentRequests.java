@@ -0,0 +1,152 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Recognizes provisioning requests that have already been applied: retries of the same POST or PUT, and PUTs
+ * whose representation equals the stored resource.
+ */
+final class IdempotentRequests {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /**
+     * Attributes a client can not change with a PUT, they never make a representation differ.
+     */
+    private static final Set<String> IGNORED_ATTRIBUTES = ImmutableSet.of("schemas", "id", "meta", "groups");
+    private static final String MEMBERS = "members";
+    private static final String PASSWORD = "password";
+    /**
+     * Attributes a Group PUT replaces even when the body leaves them out.
+     */
+    static final Set<String> GROUP_REPLACED_ATTRIBUTES = ImmutableSet.of(MEMBERS);
+
+    private IdempotentRequests() {
+    }
+
+    /**
+     * Identifies a request by client, method, URI and the SHA-256 of its body.
+     */
+    static String replayKey(String client, String method, String uri, String body) {
+        return client + ' ' + method + ' ' + uri + ' '
+                + Hashing.sha256().hashString(StringUtils.defaultString(body), StandardCharsets.UTF_8);
+    }
+
+    static Optional<String> getResourceId(JsonNode resource) {
+        return Optional.ofNullable(resource.path("id").textValue()).filter(StringUtils::isNotEmpty);
+    }
+
+    static Optional<String> getVersion(JsonNode resource) {
+        return Optional.ofNullable(resource.path("meta").path("version").textValue()).filter(StringUtils::isNotEmpty);
+    }
+
+    /**
+     * Whether the PUT body can leave the resource unchanged at all, decided without reading the resource.
+     */
+    static boolean mayBeUnchanged(String body) {
+        return parseResource(body).filter(requested -> !requested.has(PASSWORD)).isPresent();
+    }
+
+    /**
+     * Top level attributes to read for comparing the stored resource with a PUT body, as the value of the
+     * attributes parameter of a GET: those in the body and the {@code replacedAttributes}, which the PUT changes
+     * even when the body leaves them out. Attributes the body leaves out are otherwise kept by a PUT, so they need
+     * not be read. Empty when the body uses extension schemas, the whole resource is read then.
+     */
+    static Optional<String> getComparedAttributes(String body, Set<String> replacedAttributes) {
+        Optional<ObjectNode> requested = parseResource(body);
+        if (!requested.isPresent()) {
+            return Optional.empty();
+        }
+        Set<String> names = new TreeSet<>(replacedAttributes);
+        Iterator<String> fieldNames = requested.get().fieldNames();
+        while (fieldNames.hasNext()) {
+            String name = fieldNames.next();
+            if (name.startsWith("urn:")) {
+                return Optional.empty();
+            }
+            if (!IGNORED_ATTRIBUTES.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names.isEmpty() ? Optional.empty() : Optional.of(String.join(",", names));
+    }
+
+    /**
+     * Whether replacing the stored resource with the PUT body would leave it as it is. Compares the writable
+     * attributes exactly, except that multi-valued attributes are compared regardless of order and members
+     * only by value. A body with a password is never unchanged, the stored password can not be compared.
+     */
+    static boolean isUnchanged(String body, JsonNode stored) {
+        return parseResource(body)
+                .filter(requested -> !requested.has(PASSWORD))
+                .map(requested -> normalize(requested).equals(normalize(stored)))
+                .orElse(false);
+    }
+
+    private static Optional<ObjectNode> parseResource(String body) {
+        try {
+            JsonNode requested = OBJECT_MAPPER.readTree(StringUtils.defaultString(body));
+            return requested instanceof ObjectNode ? Optional.of((ObjectNode) requested) : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static ObjectNode normalize(JsonNode resource) {
+        ObjectNode normalized = OBJECT_MAPPER.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = resource.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (IGNORED_ATTRIBUTES.contains(field.getKey()) || field.getValue().isNull()) {
+                continue;
+            }
+            if (MEMBERS.equals(field.getKey())) {
+                Set<String> values = new HashSet<>();
+                field.getValue().forEach(member -> values.add(member.path("value").asText()));
+                ArrayNode memberValues = normalized.putArray(MEMBERS);
+                values.stream().sorted().forEach(memberValues::add);
+            } else {
+                normalized.set(field.getKey(), normalizeValue(field.getValue()));
+            }
+        }
+        return normalized;
+    }
+
+    private static JsonNode normalizeValue(JsonNode value) {
+        if (value instanceof ArrayNode) {
+            // order of multi-valued attributes is not significant, the multiset of elements is
+            Multiset<String> elements = HashMultiset.create();
+            value.forEach(element -> elements.add(normalizeValue(element).toString()));
+            ArrayNode normalized = OBJECT_MAPPER.createArrayNode();
+            elements.stream().sorted().forEach(normalized::add);
+            return normalized;
+        }
+        if (value instanceof ObjectNode) {
+            // sorted field names, so that equal elements of multi-valued attributes have equal string forms
+            Map<String, JsonNode> fields = new TreeMap<>();
+            value.fields().forEachRemaining(field -> fields.put(field.getKey(), normalizeValue(field.getValue())));
+            ObjectNode normalized = OBJECT_MAPPER.createObjectNode();
+            normalized.setAll(fields);
+            return normalized;
+        }
+        return value;
+    }
+}
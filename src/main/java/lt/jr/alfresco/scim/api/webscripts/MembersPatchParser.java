@@ -0,0 +1,103 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.jr.alfresco.scim.api.model.MembersPatch;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes PatchOp requests that only add or remove group members, as sent by Azure AD and Okta.
+ * Anything else is left to the SCIM SDK patch implementation.
+ */
+final class MembersPatchParser {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String MEMBERS_PATH = "members";
+    private static final Pattern MEMBER_VALUE_PATH = Pattern.compile(
+            "^members\\s*\\[\\s*value\\s+eq\\s+\"([^\"]+)\"\\s*\\]$", Pattern.CASE_INSENSITIVE);
+
+    private MembersPatchParser() {
+    }
+
+    static Optional<MembersPatch> parse(String body) {
+        if (StringUtils.isBlank(body)) {
+            return Optional.empty();
+        }
+        JsonNode root;
+        try {
+            root = OBJECT_MAPPER.readTree(body);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        JsonNode operations = root.path("Operations");
+        if (!operations.isArray() || operations.size() == 0) {
+            return Optional.empty();
+        }
+        MembersPatch patch = new MembersPatch();
+        for (JsonNode operation : operations) {
+            Optional<MembersPatch.Operation> membersOperation = toMembersOperation(operation);
+            if (!membersOperation.isPresent()) {
+                return Optional.empty();
+            }
+            patch.add(membersOperation.get());
+        }
+        return Optional.of(patch);
+    }
+
+    private static Optional<MembersPatch.Operation> toMembersOperation(JsonNode operation) {
+        String op = operation.path("op").asText("").toLowerCase(Locale.ROOT);
+        String path = operation.path("path").asText("").trim();
+        JsonNode value = operation.get("value");
+        Matcher memberValuePath = MEMBER_VALUE_PATH.matcher(path);
+        if (memberValuePath.matches()) {
+            return "remove".equals(op) && value == null
+                    ? Optional.of(new MembersPatch.Operation(MembersPatch.Type.REMOVE,
+                            Collections.singletonList(memberValuePath.group(1))))
+                    : Optional.empty();
+        }
+        if (!MEMBERS_PATH.equalsIgnoreCase(path)) {
+            return Optional.empty();
+        }
+        if ("remove".equals(op) && value == null) {
+            return Optional.of(new MembersPatch.Operation(MembersPatch.Type.REMOVE_ALL, Collections.emptyList()));
+        }
+        Optional<List<String>> memberIds = getMemberIds(value);
+        if (!memberIds.isPresent()) {
+            return Optional.empty();
+        }
+        switch (op) {
+            case "add":
+                return Optional.of(new MembersPatch.Operation(MembersPatch.Type.ADD, memberIds.get()));
+            case "remove":
+                return Optional.of(new MembersPatch.Operation(MembersPatch.Type.REMOVE, memberIds.get()));
+            case "replace":
+                return Optional.of(new MembersPatch.Operation(MembersPatch.Type.REPLACE, memberIds.get()));
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private static Optional<List<String>> getMemberIds(JsonNode value) {
+        if (value == null || !value.isArray()) {
+            return Optional.empty();
+        }
+        List<String> memberIds = new ArrayList<>(value.size());
+        for (JsonNode member : value) {
+            String memberId = member.path("value").asText(null);
+            if (StringUtils.isBlank(memberId)) {
+                return Optional.empty();
+            }
+            memberIds.add(memberId);
+        }
+        return Optional.of(memberIds);
+    }
+}
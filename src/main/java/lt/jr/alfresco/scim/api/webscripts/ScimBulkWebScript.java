@@ -0,0 +1,91 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.captaingoldfish.scim.sdk.common.constants.EndpointPaths;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ScimBulkWebScript extends ScimEndpointWebScript implements DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(ScimBulkWebScript.class);
+
+    private int workerThreads = 4;
+    private int batchSize = 10;
+
+    private ExecutorService executorService;
+    private BulkRequestProcessor bulkRequestProcessor;
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        executorService = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder()
+                .setNameFormat("scim-bulk-%d")
+                .setDaemon(true)
+                .build());
+        bulkRequestProcessor = new BulkRequestProcessor(getResourceEndpoint(),
+                getRetryingTransactionHelper(), getExternalIdLockService(), executorService, batchSize);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+    }
+
+    @Override
+    protected String getOperationName(WebScriptRequest req) {
+        return "Bulk";
+    }
+
+    /**
+     * Operations of a bulk request run on up to workerThreads threads, so it takes that many write slots. The number
+     * of operations is not known before the body is read, so small bulk requests are admitted like large ones.
+     */
+    @Override
+    protected int getAdmissionPermits() {
+        return workerThreads;
+    }
+
+    @Override
+    protected void handle(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        HttpServletRequest request = getServletRequest(req);
+        String requestUrl = request.getRequestURL().toString();
+        logger.debug("{} {}", request.getMethod(), request.getRequestURI());
+        String body;
+        try {
+            body = ScimRequestBodyReader.read(request, getBulkMaxPayloadSize());
+        } catch (ScimRequestBodyReader.PayloadTooLargeException e) {
+            ScimResponseWriter.writeError(413, e.getMessage(), res);
+            return;
+        }
+        setRequestBody(request, body);
+        ObjectNode bulkResponse;
+        try {
+            bulkResponse = bulkRequestProcessor.process(StringUtils.removeEnd(requestUrl, EndpointPaths.BULK), body,
+                    getHttpHeaders(request), getBulkMaxOperations());
+        } catch (BulkRequestProcessor.BulkRequestException e) {
+            ScimResponseWriter.writeError(e.getStatus(), e.getMessage(), res);
+            return;
+        }
+        res.setStatus(200);
+        res.setContentType(ScimResponseWriter.SCIM_CONTENT_TYPE);
+        ScimResponseWriter.writeJson(bulkResponse, res.getOutputStream());
+    }
+}
@@ -0,0 +1,89 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lt.jr.alfresco.scim.api.model.ChangeEntry;
+import lt.jr.alfresco.scim.api.model.ChangePage;
+import lt.jr.alfresco.scim.api.services.ChangeLogService;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * /Changes?since=&lt;watermark&gt; lists users and groups created, modified, disabled or deleted after the watermark,
+ * together with the watermark for the next poll. Without since only the current watermark is returned, and a
+ * watermark older than the change log retention is answered with 410 so the client falls back to a full export.
+ */
+public class ScimChangesWebScript extends ScimEndpointWebScript {
+
+    static final String CHANGES_RESPONSE_URI = "urn:lt:jr:params:scim:api:messages:2.0:ChangesResponse";
+
+    private static final String SINCE_PARAMETER = "since";
+    private static final String COUNT_PARAMETER = "count";
+
+    private ChangeLogService changeLogService;
+    private int maxResults = 1000;
+
+    @Autowired
+    public void setChangeLogService(@Qualifier("ChangeLogService") ChangeLogService changeLogService) {
+        this.changeLogService = changeLogService;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    @Override
+    protected String getOperationName(WebScriptRequest req) {
+        return "Changes";
+    }
+
+    @Override
+    protected void handle(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String since = req.getParameter(SINCE_PARAMETER);
+        ChangePage changes;
+        if (StringUtils.isEmpty(since)) {
+            changes = new ChangePage(Collections.emptyList(), changeLogService.getCurrentWatermark());
+        } else {
+            long watermark = NumberUtils.toLong(since, -1L);
+            if (watermark < 0) {
+                ScimResponseWriter.writeError(400, "Invalid watermark '" + since + "'", res);
+                return;
+            }
+            if (!changeLogService.isAvailable(watermark)) {
+                ScimResponseWriter.writeError(410, "Changes since " + since + " are no longer available, perform a full export", res);
+                return;
+            }
+            int count = Math.max(1, Math.min(maxResults, NumberUtils.toInt(req.getParameter(COUNT_PARAMETER), maxResults)));
+            changes = doInTransaction(() -> changeLogService.getChanges(watermark, count), true);
+        }
+        res.setStatus(200);
+        res.setContentType(ScimResponseWriter.SCIM_CONTENT_TYPE);
+        ScimResponseWriter.writeJson(toJson(changes), res.getOutputStream());
+    }
+
+    private static ObjectNode toJson(ChangePage changes) {
+        ObjectNode response = JsonNodeFactory.instance.objectNode();
+        response.putArray("schemas").add(CHANGES_RESPONSE_URI);
+        response.put("watermark", String.valueOf(changes.getWatermark()));
+        response.put("totalResults", changes.getChanges().size());
+        ArrayNode resources = response.putArray("Resources");
+        for (ChangeEntry change : changes.getChanges()) {
+            resources.addObject()
+                    .put("id", change.getId())
+                    .put("resourceType", change.getResourceType())
+                    .put("change", change.getType().name().toLowerCase(Locale.ROOT))
+                    .put("timestamp", Instant.ofEpochMilli(change.getTimestamp()).toString());
+        }
+        return response;
+    }
+}
@@ -1,44 +1,116 @@
 package lt.jr.alfresco.scim.api.webscripts;
 
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.UrlEscapers;
+import de.captaingoldfish.scim.sdk.common.constants.SchemaUris;
+import de.captaingoldfish.scim.sdk.common.constants.enums.HttpMethod;
+import de.captaingoldfish.scim.sdk.common.exceptions.ScimException;
+import de.captaingoldfish.scim.sdk.common.resources.ResourceNode;
 import de.captaingoldfish.scim.sdk.common.resources.ServiceProvider;
 import de.captaingoldfish.scim.sdk.common.resources.complex.*;
 import de.captaingoldfish.scim.sdk.common.resources.multicomplex.AuthenticationScheme;
+import de.captaingoldfish.scim.sdk.common.response.ErrorResponse;
 import de.captaingoldfish.scim.sdk.common.response.ScimResponse;
+import de.captaingoldfish.scim.sdk.common.schemas.SchemaAttribute;
 import de.captaingoldfish.scim.sdk.server.endpoints.ResourceEndpoint;
 import de.captaingoldfish.scim.sdk.server.endpoints.base.GroupEndpointDefinition;
 import de.captaingoldfish.scim.sdk.server.endpoints.base.UserEndpointDefinition;
+import de.captaingoldfish.scim.sdk.server.schemas.ResourceType;
+import de.captaingoldfish.scim.sdk.server.utils.RequestUtils;
+import lt.jr.alfresco.scim.api.hadlers.ExternalAuthorityResourceHandler;
 import lt.jr.alfresco.scim.api.hadlers.GroupHandler;
 import lt.jr.alfresco.scim.api.hadlers.UserHandler;
+import lt.jr.alfresco.scim.api.model.CachedScimResponse;
+import lt.jr.alfresco.scim.api.model.KeysetPage;
+import lt.jr.alfresco.scim.api.metrics.RepositoryCallBudget;
+import lt.jr.alfresco.scim.api.metrics.ScimAccessLog;
+import lt.jr.alfresco.scim.api.metrics.ScimMetrics;
+import lt.jr.alfresco.scim.api.model.MembersPatch;
+import lt.jr.alfresco.scim.api.model.ReplayedResponse;
+import lt.jr.alfresco.scim.api.services.AdmissionControlService;
+import lt.jr.alfresco.scim.api.services.ExternalIdLockService;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.web.scripts.BufferedRequest;
-import org.apache.commons.io.IOUtils;
+import org.alfresco.repo.web.scripts.BufferedResponse;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.extensions.webscripts.AbstractWebScript;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 import org.springframework.extensions.webscripts.servlet.WebScriptServletRequest;
+import org.springframework.extensions.webscripts.servlet.WebScriptServletResponse;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-public class ScimEndpointWebScript extends AbstractWebScript {
+public class ScimEndpointWebScript extends AbstractWebScript implements InitializingBean {
     
     private final Logger logger = LoggerFactory.getLogger(ScimEndpointWebScript.class);
     
     private static final String resource_uri = "/{resource}";
     private static final String resource_id_uri = "/{resource}/{id}";
+    static final String USERS_RESOURCE = "Users";
+    static final String GROUPS_RESOURCE = "Groups";
+    private static final String CURSOR_PARAMETER = "cursor";
+    private static final String COUNT_PARAMETER = "count";
+    private static final String FILTER_PARAMETER = "filter";
+    private static final String START_INDEX_PARAMETER = "startIndex";
+    private static final String ATTRIBUTES_PARAMETER = "attributes";
+    private static final String EXCLUDED_ATTRIBUTES_PARAMETER = "excludedAttributes";
+    private static final String IF_MATCH = "If-Match";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String DEBUG_HEADER = "X-Scim-Debug";
+    private static final String BODY_ATTRIBUTE = ScimEndpointWebScript.class.getName() + ".body";
+    private static final Set<String> CONDITIONAL_HEADERS = ImmutableSet.of("if-match", "if-none-match");
     
     private UserHandler userHandler;
     private GroupHandler groupHandler;
+    private ExternalIdLockService externalIdLockService;
+    private ScimMetrics scimMetrics;
+    private ScimAccessLog scimAccessLog;
+    private AdmissionControlService admissionControlService;
+
+    private int filterMaxResults = 50;
+    private int bulkMaxOperations = 10;
+    private long bulkMaxPayloadSize = 2097152L;
+    private long requestMaxPayloadSize = 10485760L;
+    private boolean discoveryCacheEnabled = true;
+    private int discoveryCacheMaxEntries = 100;
+    private String cursorSecret;
+    private boolean replayEnabled = true;
+    private boolean putNoOpCheckEnabled = true;
+    private long syncDateRefreshMillis = TimeUnit.HOURS.toMillis(1);
+    private SimpleCache<String, ReplayedResponse> replayCache;
+
+    private RetryingTransactionHelper retryingTransactionHelper;
+
+    private ResourceEndpoint resourceEndpoint;
+    private ResourceType userResourceType;
+    private ResourceType groupResourceType;
+    private DiscoveryResponseCache discoveryResponseCache;
+    private CursorCodec cursorCodec;
 
     @Autowired
     public void setUserHandler(UserHandler userHandler) {
@@ -50,30 +122,591 @@ public class ScimEndpointWebScript extends AbstractWebScript {
         this.groupHandler = groupHandler;
     }
 
+    @Autowired
+    public void setScimMetrics(@Qualifier("ScimMetrics") ScimMetrics scimMetrics) {
+        this.scimMetrics = scimMetrics;
+    }
+
+    @Autowired
+    public void setScimAccessLog(@Qualifier("ScimAccessLog") ScimAccessLog scimAccessLog) {
+        this.scimAccessLog = scimAccessLog;
+    }
+
+    @Autowired
+    public void setAdmissionControlService(@Qualifier("AdmissionControlService") AdmissionControlService admissionControlService) {
+        this.admissionControlService = admissionControlService;
+    }
+
+    @Autowired
+    public void setExternalIdLockService(@Qualifier("ExternalIdLockService") ExternalIdLockService externalIdLockService) {
+        this.externalIdLockService = externalIdLockService;
+    }
+
+    public void setRetryingTransactionHelper(RetryingTransactionHelper retryingTransactionHelper) {
+        this.retryingTransactionHelper = retryingTransactionHelper;
+    }
+
+    public void setFilterMaxResults(int filterMaxResults) {
+        this.filterMaxResults = filterMaxResults;
+    }
+
+    public void setBulkMaxOperations(int bulkMaxOperations) {
+        this.bulkMaxOperations = bulkMaxOperations;
+    }
+
+    public void setBulkMaxPayloadSize(long bulkMaxPayloadSize) {
+        this.bulkMaxPayloadSize = bulkMaxPayloadSize;
+    }
+
+    public void setRequestMaxPayloadSize(long requestMaxPayloadSize) {
+        this.requestMaxPayloadSize = requestMaxPayloadSize;
+    }
+
+    public void setDiscoveryCacheEnabled(boolean discoveryCacheEnabled) {
+        this.discoveryCacheEnabled = discoveryCacheEnabled;
+    }
+
+    public void setDiscoveryCacheMaxEntries(int discoveryCacheMaxEntries) {
+        this.discoveryCacheMaxEntries = discoveryCacheMaxEntries;
+    }
+
+    public void setCursorSecret(String cursorSecret) {
+        this.cursorSecret = cursorSecret;
+    }
+
+    public void setReplayEnabled(boolean replayEnabled) {
+        this.replayEnabled = replayEnabled;
+    }
+
+    public void setPutNoOpCheckEnabled(boolean putNoOpCheckEnabled) {
+        this.putNoOpCheckEnabled = putNoOpCheckEnabled;
+    }
+
+    public void setSyncDateRefreshMinutes(long syncDateRefreshMinutes) {
+        this.syncDateRefreshMillis = TimeUnit.MINUTES.toMillis(syncDateRefreshMinutes);
+    }
+
+    public void setReplayCache(SimpleCache<String, ReplayedResponse> replayCache) {
+        this.replayCache = replayCache;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        resourceEndpoint = new ResourceEndpoint(getServiceProviderConfig());
+        userResourceType = resourceEndpoint.registerEndpoint(new UserEndpointDefinition(userHandler));
+        groupResourceType = resourceEndpoint.registerEndpoint(new GroupEndpointDefinition(groupHandler));
+        discoveryResponseCache = new DiscoveryResponseCache(discoveryCacheMaxEntries);
+        cursorCodec = new CursorCodec(cursorSecret);
+    }
+
+    /**
+     * Records latency, status and repository calls of every request in {@link ScimMetrics} and {@link ScimAccessLog}.
+     * Requests beyond the concurrency limits of {@link AdmissionControlService} are answered with 429.
+     */
     @Override
     public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        HttpServletRequest request = getServletRequest(req);
+        String operation = getOperationName(req) + " " + request.getMethod();
+        long start = System.nanoTime();
+        boolean completed = false;
+        RepositoryCallBudget.start();
+        try {
+            admitAndHandle(req, res, request);
+            completed = true;
+        } finally {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            int status = completed ? getServletResponse(res).getStatus() : 500;
+            Map<String, Integer> repositoryCalls = RepositoryCallBudget.finish();
+            scimMetrics.recordRequest(operation, millis, status, repositoryCalls);
+            scimAccessLog.log(operation, request.getMethod(), request.getRequestURI(), request.getQueryString(),
+                    AuthenticationUtil.getFullyAuthenticatedUser(), status, millis,
+                    (String) request.getAttribute(BODY_ATTRIBUTE), repositoryCalls, isDebugRequest(request));
+        }
+    }
+
+    private void admitAndHandle(WebScriptRequest req, WebScriptResponse res, HttpServletRequest request) throws IOException {
+        String client = StringUtils.defaultString(AuthenticationUtil.getFullyAuthenticatedUser(), "unknown");
+        Optional<AdmissionControlService.Admission> admission = admissionControlService.admit(client,
+                !HttpMethod.GET.name().equals(request.getMethod()), getAdmissionPermits());
+        if (!admission.isPresent()) {
+            res.setHeader("Retry-After", String.valueOf(admissionControlService.getRetryAfterSeconds()));
+            ScimResponseWriter.writeError(429, "Too many concurrent SCIM requests, retry later", res);
+            return;
+        }
+        try (AdmissionControlService.Admission ignored = admission.get()) {
+            handle(req, res);
+        }
+    }
+
+    /**
+     * Number of admission slots a request takes, the number of threads it may run on at once.
+     */
+    protected int getAdmissionPermits() {
+        return 1;
+    }
+
+    /**
+     * Keeps the request body for the access log entry written once the request completes.
+     */
+    protected void setRequestBody(HttpServletRequest request, String body) {
+        request.setAttribute(BODY_ATTRIBUTE, body);
+    }
+
+    private boolean isDebugRequest(HttpServletRequest request) {
+        return scimAccessLog.isDebugHeaderEnabled() && Boolean.parseBoolean(request.getHeader(DEBUG_HEADER));
+    }
+
+    protected void handle(WebScriptRequest req, WebScriptResponse res) throws IOException {
         handleRequest(req, res);
     }
 
+    /**
+     * Metrics and access log key of the request. The resource comes from the URL, so anything but Users, Groups
+     * and the discovery endpoints is reported as "other" to keep the number of keys bounded.
+     */
+    protected String getOperationName(WebScriptRequest req) {
+        String resource = req.getServiceMatch().getTemplateVars().get("resource");
+        if (USERS_RESOURCE.equals(resource) || GROUPS_RESOURCE.equals(resource)
+                || DiscoveryResponseCache.isDiscoveryResource(resource)) {
+            return resource;
+        }
+        return "other";
+    }
+
+    /**
+     * Runs the callback in a transaction of the request scoped retrying helper, counting retries in the metrics.
+     */
+    protected <T> T doInTransaction(RetryingTransactionHelper.RetryingTransactionCallback<T> callback, boolean readOnly) {
+        int[] attempts = {0};
+        try {
+            return retryingTransactionHelper.doInTransaction(() -> {
+                attempts[0]++;
+                return callback.execute();
+            }, readOnly, false);
+        } finally {
+            if (attempts[0] > 1) {
+                scimMetrics.recordTransactionRetries(attempts[0] - 1);
+            }
+        }
+    }
+
+    protected ResourceEndpoint getResourceEndpoint() {
+        return resourceEndpoint;
+    }
+
+    protected UserHandler getUserHandler() {
+        return userHandler;
+    }
+
+    protected GroupHandler getGroupHandler() {
+        return groupHandler;
+    }
+
+    protected ExternalIdLockService getExternalIdLockService() {
+        return externalIdLockService;
+    }
+
+    protected RetryingTransactionHelper getRetryingTransactionHelper() {
+        return retryingTransactionHelper;
+    }
+
+    protected int getBulkMaxOperations() {
+        return bulkMaxOperations;
+    }
+
+    protected long getBulkMaxPayloadSize() {
+        return bulkMaxPayloadSize;
+    }
+
     private void handleRequest(WebScriptRequest req, WebScriptResponse res) throws IOException {
-        ResourceEndpoint resourceEndpoint = new ResourceEndpoint(getServiceProviderConfig());
-        resourceEndpoint.registerEndpoint(new UserEndpointDefinition(userHandler));
-        resourceEndpoint.registerEndpoint(new GroupEndpointDefinition(groupHandler));
         HttpServletRequest request = getServletRequest(req);
         String query = request.getQueryString() == null ? "" : "?" + request.getQueryString();
-        logger.info("{} {}", request.getMethod(), request.getRequestURL().toString() + query);
-        String body = getRequestBody(request);
-        if(StringUtils.isNoneBlank(body)) {
-            logger.info("Body: {}", body);
+        logger.debug("{} {}", request.getMethod(), request.getRequestURI());
+        if (isCachedDiscoveryRequest(req, request)) {
+            writeDiscoveryResponse(request, res);
+            return;
+        }
+        if (isNotModified(req, request, res)) {
+            return;
+        }
+        if (isCursorListRequest(req, request)) {
+            writeCursorPage(req, request, res);
+            return;
+        }
+        String body;
+        try {
+            body = ScimRequestBodyReader.read(request, requestMaxPayloadSize);
+        } catch (ScimRequestBodyReader.PayloadTooLargeException e) {
+            ScimResponseWriter.writeError(413, e.getMessage(), res);
+            return;
+        }
+        setRequestBody(request, body);
+        Optional<ExternalAuthorityResourceHandler<?>> versionedHandler = getVersionedResourceHandler(req);
+        Runnable precondition = () -> versionedHandler.ifPresent(handler -> verifyIfMatch(request, handler,
+                req.getServiceMatch().getTemplateVars().get("id")));
+        try {
+            if (isGroupMembersPatch(req, request)) {
+                Optional<MembersPatch> membersPatch = MembersPatchParser.parse(body);
+                if (membersPatch.isPresent()) {
+                    patchGroupMembers(req.getServiceMatch().getTemplateVars().get("id"), membersPatch.get(), precondition, res);
+                    return;
+                }
+            }
+            Map<String, String> httpHeaders = getHttpHeaders(request);
+            if (versionedHandler.isPresent()) {
+                // conditional headers are already evaluated against the cheap version, the SDK would load the resource again
+                httpHeaders.keySet().removeIf(name -> CONDITIONAL_HEADERS.contains(name.toLowerCase(Locale.ROOT)));
+            }
+            String replayKey = isReplayable(req, request)
+                    ? IdempotentRequests.replayKey(StringUtils.defaultString(AuthenticationUtil.getFullyAuthenticatedUser()),
+                            request.getMethod(), request.getRequestURI() + query, body)
+                    : null;
+            if (replayKey != null && writeReplayedResponse(replayKey, req, res)) {
+                return;
+            }
+            if (isUnchangedPut(req, request, request.getRequestURL().toString() + query, body, httpHeaders, precondition, res)) {
+                return;
+            }
+            // creates are upserts keyed by externalId, concurrent ones for the same identity must not both create it
+            Collection<String> lockedExternalIds = isCreate(req, request)
+                    ? ExternalIds.fromBody(body).map(Collections::singleton).orElse(Collections.emptySet())
+                    : Collections.emptySet();
+            ScimResponse response = externalIdLockService.doWithLocks(lockedExternalIds,
+                    () -> handleInTransaction(request.getRequestURL().toString() + query,
+                            HttpMethod.valueOf(request.getMethod()),
+                            body,
+                            httpHeaders,
+                            precondition));
+
+            if (replayKey != null) {
+                writeAndKeep(replayKey, response, res);
+            } else {
+                ScimResponseWriter.write(response, res);
+            }
+        } catch (PreconditionFailedException e) {
+            ScimResponseWriter.writeError(412, e.getMessage(), res);
+        } catch (LockAcquisitionException e) {
+            logger.warn("Could not lock externalId for {} {}", request.getMethod(), request.getRequestURL(), e);
+            ScimResponseWriter.writeError(503, "The resource is being provisioned by another request, retry later", res);
         }
-        ScimResponse response = resourceEndpoint.handleRequest(request.getRequestURL().toString() + query,
-                de.captaingoldfish.scim.sdk.common.constants.enums.HttpMethod.valueOf(request.getMethod()),
-                body,
-                getHttpHeaders(request));
+    }
+
+    /**
+     * Creates and replacements of single Users or Groups are answered from the replay cache when retried.
+     */
+    private boolean isReplayable(WebScriptRequest req, HttpServletRequest request) {
+        if (!replayEnabled || replayCache == null) {
+            return false;
+        }
+        return isCreate(req, request)
+                || (HttpMethod.PUT.name().equals(request.getMethod()) && getVersionedResourceHandler(req).isPresent());
+    }
+
+    /**
+     * A retry gets the stored response as long as the resource still has the version the response describes,
+     * checked in a read-only transaction, so a replay never hides a change made in between. The request that stored
+     * the response stamped scim:lastSyncDate; should that be older than the refresh period the retry is applied
+     * again, which stamps it.
+     */
+    private boolean writeReplayedResponse(String replayKey, WebScriptRequest req, WebScriptResponse res) throws IOException {
+        ReplayedResponse replayed = replayCache.get(replayKey);
+        if (replayed == null) {
+            return false;
+        }
+        ExternalAuthorityResourceHandler<?> handler = getResourceHandler(req);
+        Optional<String> eTag = doInTransaction(() -> handler.getVersion(replayed.getResourceId())
+                .filter(version -> handler.isSyncedWithin(replayed.getResourceId(), syncDateRefreshMillis)), true)
+                .map(ScimEndpointWebScript::toETag);
+        if (!eTag.isPresent() || !ETags.matches(replayed.getResponse().getETag(), eTag.get())) {
+            replayCache.remove(replayKey);
+            return false;
+        }
+        logger.debug("Replaying the response of an already applied request for {}", replayed.getResourceId());
+        ScimResponseWriter.write(replayed.getResponse(), res);
+        return true;
+    }
+
+    private void writeAndKeep(String replayKey, ScimResponse response, WebScriptResponse res) throws IOException {
+        Optional<String> resourceId = IdempotentRequests.getResourceId(response);
+        Optional<String> version = IdempotentRequests.getVersion(response);
+        if (response.getHttpStatus() >= 300 || !resourceId.isPresent() || !version.isPresent()) {
+            ScimResponseWriter.write(response, res);
+            return;
+        }
+        CachedScimResponse cached = ScimResponseWriter.toCachedResponse(response, version.get());
+        replayCache.put(replayKey, new ReplayedResponse(resourceId.get(), cached));
+        ScimResponseWriter.write(cached, res);
+    }
+
+    /**
+     * A PUT that would not change the resource is answered with the stored resource, no write transaction is
+     * opened. The comparison only reads the attributes of the body, so a PUT that does change the resource costs one
+     * cheap read more, and a user's groups are never resolved for it. When scim:lastSyncDate is older than the
+     * refresh period the PUT only stamps it, a single property write, and answers with the resource read after the
+     * stamp.
+     */
+    private boolean isUnchangedPut(WebScriptRequest req, HttpServletRequest request, String requestUrl, String body,
+            Map<String, String> httpHeaders, Runnable precondition, WebScriptResponse res) throws IOException {
+        if (!putNoOpCheckEnabled || !HttpMethod.PUT.name().equals(request.getMethod())
+                || !getVersionedResourceHandler(req).isPresent() || !IdempotentRequests.mayBeUnchanged(body)) {
+            return false;
+        }
+        ExternalAuthorityResourceHandler<?> handler = getResourceHandler(req);
+        String id = req.getServiceMatch().getTemplateVars().get("id");
+        String comparedUrl = getComparedUrl(req, requestUrl, body);
+        String[] version = new String[1];
+        ScimResponse compared = doInTransaction(() -> {
+            precondition.run();
+            version[0] = handler.getNodeVersion(id).orElse(null);
+            return resourceEndpoint.handleRequest(comparedUrl, HttpMethod.GET, null, httpHeaders);
+        }, true);
+        if (compared instanceof ErrorResponse || version[0] == null || !IdempotentRequests.isUnchanged(body, compared)) {
+            return false;
+        }
+        boolean synced = doInTransaction(() -> handler.isSyncedWithin(id, syncDateRefreshMillis), true);
+        ScimResponse stored = doInTransaction(() -> {
+            if (!version[0].equals(handler.getNodeVersion(id).orElse(null))) {
+                // changed since the comparison, the PUT is applied
+                return null;
+            }
+            if (!synced) {
+                handler.touchLastSyncDate(id);
+            }
+            return resourceEndpoint.handleRequest(requestUrl, HttpMethod.GET, null, httpHeaders);
+        }, synced);
+        if (stored == null) {
+            return false;
+        }
+        logger.debug("PUT {} does not change the resource", request.getRequestURI());
+        ScimResponseWriter.write(stored, res);
+        return true;
+    }
+
+    /**
+     * GET of only the attributes the PUT body is compared on, or of the whole resource when the request already has
+     * query parameters.
+     */
+    private static String getComparedUrl(WebScriptRequest req, String requestUrl, String body) {
+        if (requestUrl.indexOf('?') >= 0) {
+            return requestUrl;
+        }
+        Set<String> replacedAttributes = GROUPS_RESOURCE.equals(req.getServiceMatch().getTemplateVars().get("resource"))
+                ? IdempotentRequests.GROUP_REPLACED_ATTRIBUTES
+                : Collections.emptySet();
+        return IdempotentRequests.getComparedAttributes(body, replacedAttributes)
+                .map(attributes -> requestUrl + "?attributes=" + UrlEscapers.urlFormParameterEscaper().escape(attributes))
+                .orElse(requestUrl);
+    }
+
+    private ExternalAuthorityResourceHandler<?> getResourceHandler(WebScriptRequest req) {
+        return USERS_RESOURCE.equals(req.getServiceMatch().getTemplateVars().get("resource")) ? userHandler : groupHandler;
+    }
 
-        response.getHttpHeaders().entrySet().forEach(entry -> res.addHeader(entry.getKey(), entry.getValue()));
-        Writer writer = res.getWriter();
-        writer.write(response.toString());
+    private boolean isCursorListRequest(WebScriptRequest req, HttpServletRequest request) {
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        String resource = templateVars.get("resource");
+        return HttpMethod.GET.name().equals(request.getMethod())
+                && request.getParameter(CURSOR_PARAMETER) != null
+                && StringUtils.isBlank(templateVars.get("id"))
+                && (USERS_RESOURCE.equals(resource) || GROUPS_RESOURCE.equals(resource));
+    }
+
+    /**
+     * Cursor pagination is served next to the SDK, which only knows index based paging. An empty cursor
+     * requests the first page, nextCursor is omitted on the last page.
+     */
+    private void writeCursorPage(WebScriptRequest req, HttpServletRequest request, WebScriptResponse res) throws IOException {
+        String resource = req.getServiceMatch().getTemplateVars().get("resource");
+        if (request.getParameter(FILTER_PARAMETER) != null || request.getParameter(START_INDEX_PARAMETER) != null) {
+            ScimResponseWriter.writeError(400, "cursor can not be combined with filter or startIndex", res);
+            return;
+        }
+        String cursor = request.getParameter(CURSOR_PARAMETER);
+        Optional<String> afterKey = Optional.empty();
+        if (StringUtils.isNotEmpty(cursor)) {
+            afterKey = cursorCodec.decode(resource, cursor);
+            if (!afterKey.isPresent()) {
+                ScimResponseWriter.writeError(400, "Invalid cursor", res);
+                return;
+            }
+        }
+        int count = Math.max(1, Math.min(filterMaxResults, NumberUtils.toInt(request.getParameter(COUNT_PARAMETER), filterMaxResults)));
+        // attributes and excludedAttributes are resolved against the resource schema like the SDK does for offset pages
+        ResourceType resourceType = USERS_RESOURCE.equals(resource) ? userResourceType : groupResourceType;
+        List<SchemaAttribute> attributes;
+        List<SchemaAttribute> excludedAttributes;
+        try {
+            attributes = getAttributes(resourceType, request.getParameter(ATTRIBUTES_PARAMETER));
+            excludedAttributes = getAttributes(resourceType, request.getParameter(EXCLUDED_ATTRIBUTES_PARAMETER));
+        } catch (ScimException e) {
+            ScimResponseWriter.writeError(400, e.getMessage(), res);
+            return;
+        }
+        String after = afterKey.orElse(null);
+        KeysetPage<? extends ResourceNode> page = doInTransaction(
+                () -> USERS_RESOURCE.equals(resource)
+                        ? userHandler.listResourcesAfter(after, count, attributes, excludedAttributes)
+                        : groupHandler.listResourcesAfter(after, count, attributes, excludedAttributes),
+                true);
+
+        ObjectNode listResponse = JsonNodeFactory.instance.objectNode();
+        listResponse.putArray("schemas").add(SchemaUris.LIST_RESPONSE_URI);
+        listResponse.put("itemsPerPage", page.getResources().size());
+        if (page.getNextKey() != null) {
+            listResponse.put("nextCursor", cursorCodec.encode(resource, page.getNextKey()));
+        }
+        listResponse.putArray("Resources").addAll(page.getResources());
+        res.setStatus(200);
+        res.setContentType(ScimResponseWriter.SCIM_CONTENT_TYPE);
+        ScimResponseWriter.writeJson(listResponse, res.getOutputStream());
+    }
+
+    private static List<SchemaAttribute> getAttributes(ResourceType resourceType, String attributes) {
+        return StringUtils.isBlank(attributes)
+                ? Collections.emptyList()
+                : RequestUtils.getAttributes(resourceType, attributes);
+    }
+
+    private boolean isCreate(WebScriptRequest req, HttpServletRequest request) {
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        String resource = templateVars.get("resource");
+        return HttpMethod.POST.name().equals(request.getMethod())
+                && StringUtils.isBlank(templateVars.get("id"))
+                && (USERS_RESOURCE.equals(resource) || GROUPS_RESOURCE.equals(resource));
+    }
+
+    /**
+     * GET answers 304 straight from the node version when If-None-Match still matches, so the resource is never built.
+     */
+    private boolean isNotModified(WebScriptRequest req, HttpServletRequest request, WebScriptResponse res) {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (!HttpMethod.GET.name().equals(request.getMethod()) || StringUtils.isBlank(ifNoneMatch)) {
+            return false;
+        }
+        Optional<ExternalAuthorityResourceHandler<?>> handler = getVersionedResourceHandler(req);
+        if (!handler.isPresent()) {
+            return false;
+        }
+        String id = req.getServiceMatch().getTemplateVars().get("id");
+        Optional<String> eTag = doInTransaction(() -> handler.get().getVersion(id), true)
+                .map(ScimEndpointWebScript::toETag);
+        if (eTag.isPresent() && ETags.matches(ifNoneMatch, eTag.get())) {
+            res.setHeader("ETag", eTag.get());
+            res.setStatus(304);
+            return true;
+        }
+        return false;
+    }
+
+    private void verifyIfMatch(HttpServletRequest request, ExternalAuthorityResourceHandler<?> handler, String id) {
+        String ifMatch = request.getHeader(IF_MATCH);
+        if (StringUtils.isBlank(ifMatch)) {
+            return;
+        }
+        Optional<String> eTag = handler.getVersion(id).map(ScimEndpointWebScript::toETag);
+        // a missing resource is reported as 404 by the operation itself
+        if (eTag.isPresent() && !ETags.matches(ifMatch, eTag.get())) {
+            throw new PreconditionFailedException("Resource '" + id + "' has been modified, current version is " + eTag.get());
+        }
+    }
+
+    /**
+     * Single User or Group resources support conditional requests based on {@link ExternalAuthorityResourceHandler#getVersion(String)}.
+     */
+    private Optional<ExternalAuthorityResourceHandler<?>> getVersionedResourceHandler(WebScriptRequest req) {
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        if (StringUtils.isBlank(templateVars.get("id"))) {
+            return Optional.empty();
+        }
+        if (USERS_RESOURCE.equals(templateVars.get("resource"))) {
+            return Optional.of(userHandler);
+        }
+        if (GROUPS_RESOURCE.equals(templateVars.get("resource"))) {
+            return Optional.of(groupHandler);
+        }
+        return Optional.empty();
+    }
+
+    private static String toETag(String version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Runs one SCIM operation in exactly one transaction: read-only for GET, read-write otherwise.
+     * The SDK turns handler exceptions into error responses, so retryable failures (optimistic locking,
+     * deadlocks) are rethrown to let the bounded retrying helper replay the request, and any other error
+     * response of a write operation rolls the transaction back before it is written to the client.
+     */
+    private ScimResponse handleInTransaction(String requestUrl, HttpMethod method, String body, Map<String, String> httpHeaders,
+            Runnable precondition) {
+        boolean readOnly = method == HttpMethod.GET;
+        try {
+            return doInTransaction(() -> {
+                if (!readOnly) {
+                    precondition.run();
+                }
+                ScimResponse response = resourceEndpoint.handleRequest(requestUrl, method, body, httpHeaders);
+                if (response instanceof ErrorResponse) {
+                    rethrowRetryableFailure((ErrorResponse) response);
+                    if (!readOnly) {
+                        throw new ErrorResponseRollback(response);
+                    }
+                }
+                return response;
+            }, readOnly);
+        } catch (ErrorResponseRollback rollback) {
+            return rollback.getResponse();
+        }
+    }
+
+    private void rethrowRetryableFailure(ErrorResponse response) {
+        Throwable cause = response.getScimException() == null ? null : response.getScimException().getCause();
+        if (cause instanceof RuntimeException && RetryingTransactionHelper.extractRetryCause(cause) != null) {
+            logger.debug("Retrying SCIM request after {}", cause.toString());
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private boolean isGroupMembersPatch(WebScriptRequest req, HttpServletRequest request) {
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        return HttpMethod.PATCH.name().equals(request.getMethod())
+                && GROUPS_RESOURCE.equals(templateVars.get("resource"))
+                && StringUtils.isNotBlank(templateVars.get("id"));
+    }
+
+    private void patchGroupMembers(String groupId, MembersPatch membersPatch, Runnable precondition, WebScriptResponse res)
+            throws IOException {
+        boolean patched = doInTransaction(() -> {
+            precondition.run();
+            return groupHandler.patchMembers(groupId, membersPatch);
+        }, false);
+        if (!patched) {
+            ScimResponseWriter.writeError(404, "Group with id '" + groupId + "' does not exist", res);
+            return;
+        }
+        res.setStatus(204);
+    }
+
+    private boolean isCachedDiscoveryRequest(WebScriptRequest req, HttpServletRequest request) {
+        return discoveryCacheEnabled
+                && HttpMethod.GET.name().equals(request.getMethod())
+                && StringUtils.isEmpty(request.getQueryString())
+                && DiscoveryResponseCache.isDiscoveryResource(req.getServiceMatch().getTemplateVars().get("resource"));
+    }
+
+    private void writeDiscoveryResponse(HttpServletRequest request, WebScriptResponse res) throws IOException {
+        Map<String, String> httpHeaders = getHttpHeaders(request);
+        CachedScimResponse cached = discoveryResponseCache.get(request.getRequestURL().toString(),
+                url -> resourceEndpoint.handleRequest(url, HttpMethod.GET, null, httpHeaders));
+        res.setHeader("ETag", cached.getETag());
+        if (ETags.matches(request.getHeader(IF_NONE_MATCH), cached.getETag())) {
+            res.setStatus(304);
+            return;
+        }
+        res.setStatus(cached.getHttpStatus());
+        cached.getHttpHeaders().entrySet().forEach(entry -> res.setHeader(entry.getKey(), entry.getValue()));
+        OutputStream outputStream = res.getOutputStream();
+        outputStream.write(cached.getBody());
     }
     
     private ServiceProvider getServiceProviderConfig() {
@@ -85,32 +718,35 @@ public class ScimEndpointWebScript extends AbstractWebScript {
                                                             .type("oauthbearertoken")
                                                             .build();
       return ServiceProvider.builder()
-                            .filterConfig(FilterConfig.builder().supported(true).maxResults(50).build())
+                            .filterConfig(FilterConfig.builder().supported(true).maxResults(filterMaxResults).build())
                             .sortConfig(SortConfig.builder().supported(true).build())
                             .changePasswordConfig(ChangePasswordConfig.builder().supported(true).build())
-                            .bulkConfig(BulkConfig.builder().supported(true).maxOperations(10).build())
+                            .bulkConfig(BulkConfig.builder()
+                                                  .supported(true)
+                                                  .maxOperations(bulkMaxOperations)
+                                                  .maxPayloadSize(bulkMaxPayloadSize)
+                                                  .build())
                             .patchConfig(PatchConfig.builder().supported(true).build())
                             .authenticationSchemes(Collections.singletonList(authScheme))
                             .eTagConfig(ETagConfig.builder().supported(true).build())
                             .build();
     }
     
-    private HttpServletRequest getServletRequest(WebScriptRequest webScriptRequest) {
+    protected HttpServletResponse getServletResponse(WebScriptResponse webScriptResponse) {
+        if (webScriptResponse instanceof BufferedResponse) {
+            return ((WebScriptServletResponse) ((BufferedResponse) webScriptResponse).getNext()).getHttpServletResponse();
+        }
+        return ((WebScriptServletResponse) webScriptResponse).getHttpServletResponse();
+    }
+
+    protected HttpServletRequest getServletRequest(WebScriptRequest webScriptRequest) {
         if (webScriptRequest instanceof BufferedRequest) {
             return ((WebScriptServletRequest) ((BufferedRequest) webScriptRequest).getNext()).getHttpServletRequest();
         }
         return ((WebScriptServletRequest) webScriptRequest).getHttpServletRequest();
     }
     
-    private String getRequestBody(HttpServletRequest request) {
-      try (InputStream inputStream = request.getInputStream()) {
-        return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-      } catch (IOException e) {
-        throw new IllegalStateException(e.getMessage(), e);
-      }
-    }
-    
-    private Map<String, String> getHttpHeaders(HttpServletRequest request) {
+    protected Map<String, String> getHttpHeaders(HttpServletRequest request) {
       Map<String, String> httpHeaders = new HashMap<>();
       Enumeration<String> enumeration = request.getHeaderNames();
       while (enumeration != null && enumeration.hasMoreElements())
@@ -121,4 +757,25 @@ public class ScimEndpointWebScript extends AbstractWebScript {
       return httpHeaders;
     }
 
+    private static class PreconditionFailedException extends RuntimeException {
+
+        PreconditionFailedException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static class ErrorResponseRollback extends RuntimeException {
+
+        private final transient ScimResponse response;
+
+        ErrorResponseRollback(ScimResponse response) {
+            super("SCIM operation failed with status " + response.getHttpStatus(), null, false, false);
+            this.response = response;
+        }
+
+        ScimResponse getResponse() {
+            return response;
+        }
+    }
+
 }
@@ -0,0 +1,68 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import de.captaingoldfish.scim.sdk.common.resources.ResourceNode;
+import lt.jr.alfresco.scim.api.model.KeysetPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams every user or group as newline delimited SCIM json. The repository is walked in keyset ordered
+ * batches, each read in its own short read-only transaction and written out before the next one is loaded,
+ * so memory use does not depend on the size of the directory.
+ */
+public class ScimExportWebScript extends ScimEndpointWebScript {
+
+    static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private static final String MEMBERS_PARAMETER = "members";
+
+    private final Logger logger = LoggerFactory.getLogger(ScimExportWebScript.class);
+
+    private int batchSize = 500;
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected String getOperationName(WebScriptRequest req) {
+        return "Export " + super.getOperationName(req);
+    }
+
+    @Override
+    protected void handle(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String resource = req.getServiceMatch().getTemplateVars().get("resource");
+        if (!USERS_RESOURCE.equals(resource) && !GROUPS_RESOURCE.equals(resource)) {
+            ScimResponseWriter.writeError(404, "Resource '" + resource + "' can not be exported", res);
+            return;
+        }
+        boolean includeMembers = Boolean.parseBoolean(req.getParameter(MEMBERS_PARAMETER));
+        logger.info("Exporting {}", resource);
+        res.setStatus(200);
+        res.setContentType(NDJSON_CONTENT_TYPE);
+        OutputStream outputStream = res.getOutputStream();
+        long exported = 0;
+        String afterKey = null;
+        do {
+            String after = afterKey;
+            KeysetPage<? extends ResourceNode> page = doInTransaction(
+                    () -> USERS_RESOURCE.equals(resource)
+                            ? getUserHandler().listResourcesAfter(after, batchSize)
+                            : getGroupHandler().listResourcesAfter(after, batchSize, includeMembers),
+                    true);
+            for (ResourceNode resourceNode : page.getResources()) {
+                ScimResponseWriter.writeJson(resourceNode, outputStream);
+                outputStream.write('\n');
+            }
+            outputStream.flush();
+            exported += page.getResources().size();
+            afterKey = page.getNextKey();
+        } while (afterKey != null);
+        logger.info("Exported {} {}", exported, resource);
+    }
+}
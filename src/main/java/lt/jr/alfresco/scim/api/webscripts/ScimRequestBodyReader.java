@@ -0,0 +1,100 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the request body from the servlet input stream in fixed size chunks into a buffer sized from
+ * Content-Length, so the payload is held once as characters rather than as bytes plus intermediate copies.
+ * The size limit applies to the encoded bytes read from the stream, not to the decoded characters.
+ */
+final class ScimRequestBodyReader {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
+    private ScimRequestBodyReader() {
+    }
+
+    static String read(HttpServletRequest request, long maxPayloadSize) throws IOException {
+        int contentLength = request.getContentLength();
+        if (contentLength == 0) {
+            return "";
+        }
+        if (contentLength > maxPayloadSize) {
+            throw new PayloadTooLargeException(maxPayloadSize);
+        }
+        Charset charset = request.getCharacterEncoding() == null
+                ? StandardCharsets.UTF_8
+                : Charset.forName(request.getCharacterEncoding());
+        StringBuilder body = new StringBuilder(contentLength > 0 ? Math.min(contentLength, MAX_INITIAL_CAPACITY) : CHUNK_SIZE);
+        char[] chunk = new char[CHUNK_SIZE];
+        try (InputStream inputStream = new LimitedInputStream(request.getInputStream(), maxPayloadSize);
+             Reader reader = new InputStreamReader(inputStream, charset)) {
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                body.append(chunk, 0, read);
+            }
+        }
+        return body.toString();
+    }
+
+    /**
+     * Fails as soon as more than the maximum number of bytes has been read, whatever the Content-Length claimed.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxPayloadSize;
+        private long count;
+
+        LimitedInputStream(InputStream inputStream, long maxPayloadSize) {
+            super(inputStream);
+            this.maxPayloadSize = maxPayloadSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long bytes) throws PayloadTooLargeException {
+            count += bytes;
+            if (count > maxPayloadSize) {
+                throw new PayloadTooLargeException(maxPayloadSize);
+            }
+        }
+    }
+
+    static class PayloadTooLargeException extends IOException {
+
+        PayloadTooLargeException(long maxPayloadSize) {
+            super("Request body exceeds the maximum payload size of " + maxPayloadSize + " bytes");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.captaingoldfish.scim.sdk.common.constants.SchemaUris;
+import de.captaingoldfish.scim.sdk.common.response.ScimResponse;
+import lt.jr.alfresco.scim.api.model.CachedScimResponse;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * Serializes SCIM json directly to the servlet output stream instead of building the whole document as a String.
+ */
+final class ScimResponseWriter {
+
+    static final String SCIM_CONTENT_TYPE = "application/scim+json";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static {
+        OBJECT_MAPPER.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private ScimResponseWriter() {
+    }
+
+    static void write(ScimResponse response, WebScriptResponse res) throws IOException {
+        res.setStatus(response.getHttpStatus());
+        response.getHttpHeaders().entrySet().forEach(entry -> res.setHeader(entry.getKey(), entry.getValue()));
+        if (response.getHttpStatus() == 204 || response.size() == 0) {
+            return;
+        }
+        writeJson(response, res.getOutputStream());
+    }
+
+    /**
+     * Serializes the response once, for responses that are both written and kept.
+     */
+    static CachedScimResponse toCachedResponse(ScimResponse response, String eTag) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (response.getHttpStatus() != 204 && response.size() > 0) {
+            writeJson(response, body);
+        }
+        return new CachedScimResponse(response.getHttpStatus(), new HashMap<>(response.getHttpHeaders()),
+                body.toByteArray(), eTag);
+    }
+
+    static void write(CachedScimResponse response, WebScriptResponse res) throws IOException {
+        res.setStatus(response.getHttpStatus());
+        response.getHttpHeaders().entrySet().forEach(entry -> res.setHeader(entry.getKey(), entry.getValue()));
+        if (response.getBody().length > 0) {
+            res.getOutputStream().write(response.getBody());
+        }
+    }
+
+    static void writeError(int status, String detail, WebScriptResponse res) throws IOException {
+        ObjectNode error = OBJECT_MAPPER.createObjectNode();
+        error.putArray("schemas").add(SchemaUris.ERROR_URI);
+        error.put("status", String.valueOf(status));
+        error.put("detail", detail);
+        res.setStatus(status);
+        res.setContentType(SCIM_CONTENT_TYPE);
+        writeJson(error, res.getOutputStream());
+    }
+
+    static void writeJson(JsonNode node, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            OBJECT_MAPPER.writeTree(generator, node);
+        }
+    }
+}
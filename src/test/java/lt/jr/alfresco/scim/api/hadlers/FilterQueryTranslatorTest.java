@@ -0,0 +1,114 @@
+package lt.jr.alfresco.scim.api.hadlers;
+
+import de.captaingoldfish.scim.sdk.common.resources.ServiceProvider;
+import de.captaingoldfish.scim.sdk.common.resources.complex.FilterConfig;
+import de.captaingoldfish.scim.sdk.server.endpoints.ResourceEndpoint;
+import de.captaingoldfish.scim.sdk.server.endpoints.base.UserEndpointDefinition;
+import de.captaingoldfish.scim.sdk.server.schemas.ResourceType;
+import de.captaingoldfish.scim.sdk.server.utils.RequestUtils;
+import lt.jr.alfresco.scim.api.hadlers.FilterQueryTranslator.TranslatedFilter;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class FilterQueryTranslatorTest {
+
+    private static final FilterQueryTranslator TRANSLATOR = new FilterQueryTranslator()
+            .field("userName", "cm:userName")
+            .field("externalId", "scim:externalIdLower")
+            .field("name.familyName", "cm:lastName")
+            .field("title", "cm:jobtitle")
+            .activeAttribute("cm:personDisabled");
+
+    private static ResourceType userResourceType;
+
+    @BeforeClass
+    public static void registerUserEndpoint() {
+        ResourceEndpoint resourceEndpoint = new ResourceEndpoint(ServiceProvider.builder()
+                .filterConfig(FilterConfig.builder().supported(true).build())
+                .build());
+        userResourceType = resourceEndpoint.registerEndpoint(new UserEndpointDefinition(mock(UserHandler.class)));
+    }
+
+    @Test
+    public void mapsComparisonOperators() {
+        assertComplete("=cm:userName:\"jdoe\"", "userName eq \"jdoe\"");
+        assertComplete("(ISNODE:T AND NOT =cm:userName:\"jdoe\")", "userName ne \"jdoe\"");
+        assertComplete("cm:lastName:\"Sm*\"", "name.familyName sw \"Sm\"");
+        assertComplete("cm:lastName:\"*th\"", "name.familyName ew \"th\"");
+        assertComplete("cm:lastName:\"*mit*\"", "name.familyName co \"mit\"");
+        assertComplete("ISNOTNULL:\"cm:jobtitle\"", "title pr");
+    }
+
+    @Test
+    public void rejectsOperatorsWithoutRepositoryEquivalent() {
+        assertFalse(translate("userName gt \"jdoe\"").isPresent());
+        assertFalse(translate("nickName eq \"jd\"").isPresent());
+    }
+
+    @Test
+    public void normalizesExternalIds() {
+        assertComplete("=scim:externalIdLower:\"abc-1\"", "externalId eq \"ABC-1\"");
+    }
+
+    @Test
+    public void mapsActiveToDisabledAspect() {
+        assertComplete("(ISNODE:T AND NOT ASPECT:\"cm:personDisabled\")", "active eq true");
+        assertComplete("ASPECT:\"cm:personDisabled\"", "active eq false");
+        assertComplete("ASPECT:\"cm:personDisabled\"", "active ne true");
+        assertComplete("ISNODE:T", "active pr");
+    }
+
+    @Test
+    public void combinesLogicalExpressions() {
+        assertComplete("(=cm:userName:\"jdoe\" AND ISNOTNULL:\"cm:jobtitle\")", "userName eq \"jdoe\" and title pr");
+        assertComplete("(=cm:userName:\"jdoe\" OR =cm:userName:\"jroe\")", "userName eq \"jdoe\" or userName eq \"jroe\"");
+        assertComplete("(ISNODE:T AND NOT =cm:userName:\"jdoe\")", "not (userName eq \"jdoe\")");
+    }
+
+    @Test
+    public void keepsTranslatedSideOfPartialAnd() {
+        Optional<TranslatedFilter> filter = translate("userName eq \"jdoe\" and nickName eq \"jd\"");
+        assertTrue(filter.isPresent());
+        assertEquals("=cm:userName:\"jdoe\"", filter.get().getQuery());
+        assertFalse(filter.get().isComplete());
+    }
+
+    @Test
+    public void rejectsPartialOrAndNot() {
+        assertFalse(translate("userName eq \"jdoe\" or nickName eq \"jd\"").isPresent());
+        assertFalse(translate("not (userName eq \"jdoe\" and nickName eq \"jd\")").isPresent());
+    }
+
+    @Test
+    public void escapesWildcardsInValues() {
+        assertComplete("cm:userName:\"*a\\*b\\?c*\"", "userName co \"a*b?c\"");
+    }
+
+    @Test
+    public void escapesPhraseSpecialCharacters() {
+        assertEquals("a\\\\b\\\"c\\*d\\?", FilterQueryTranslator.escapePhrase("a\\b\"c*d?"));
+    }
+
+    @Test
+    public void translatesNoFilterToNothing() {
+        assertFalse(TRANSLATOR.translate(null).isPresent());
+    }
+
+    private static void assertComplete(String expectedQuery, String filter) {
+        Optional<TranslatedFilter> translated = translate(filter);
+        assertTrue(filter, translated.isPresent());
+        assertEquals(expectedQuery, translated.get().getQuery());
+        assertTrue(filter, translated.get().isComplete());
+    }
+
+    private static Optional<TranslatedFilter> translate(String filter) {
+        return TRANSLATOR.translate(RequestUtils.parseFilter(userResourceType, filter));
+    }
+}
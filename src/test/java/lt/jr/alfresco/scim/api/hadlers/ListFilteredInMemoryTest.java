@@ -0,0 +1,123 @@
+package lt.jr.alfresco.scim.api.hadlers;
+
+import de.captaingoldfish.scim.sdk.common.resources.ServiceProvider;
+import de.captaingoldfish.scim.sdk.common.resources.User;
+import de.captaingoldfish.scim.sdk.common.resources.complex.FilterConfig;
+import de.captaingoldfish.scim.sdk.server.endpoints.ResourceEndpoint;
+import de.captaingoldfish.scim.sdk.server.endpoints.base.UserEndpointDefinition;
+import de.captaingoldfish.scim.sdk.server.filter.FilterNode;
+import de.captaingoldfish.scim.sdk.server.response.PartialListResponse;
+import de.captaingoldfish.scim.sdk.server.schemas.ResourceType;
+import de.captaingoldfish.scim.sdk.server.utils.RequestUtils;
+import lt.jr.alfresco.scim.api.model.NodeRefPage;
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ListFilteredInMemoryTest {
+
+    /**
+     * user0 .. user249, every second one is matched by the filter
+     */
+    private static final int USERS = 250;
+
+    private static ResourceType userResourceType;
+
+    private UserHandler handler;
+    private FilterNode filter;
+
+    @BeforeClass
+    public static void registerUserEndpoint() {
+        ResourceEndpoint resourceEndpoint = new ResourceEndpoint(ServiceProvider.builder()
+                .filterConfig(FilterConfig.builder().supported(true).build())
+                .build());
+        userResourceType = resourceEndpoint.registerEndpoint(new UserEndpointDefinition(mock(UserHandler.class)));
+    }
+
+    @Before
+    public void setUp() {
+        List<NodeRef> nodeRefs = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            nodeRefs.add(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "user" + i));
+        }
+        handler = mock(UserHandler.class, CALLS_REAL_METHODS);
+        doAnswer(invocation -> {
+            int skipCount = invocation.getArgument(3);
+            int maxItems = invocation.getArgument(4);
+            List<NodeRef> page = nodeRefs.subList(Math.min(skipCount, USERS), Math.min(skipCount + maxItems, USERS));
+            return new NodeRefPage(page, USERS);
+        }).when(handler).searchNodeRefs(anyString(), any(), anyBoolean(), anyInt(), anyInt());
+        filter = RequestUtils.parseFilter(userResourceType, "nickName eq \"even\"");
+    }
+
+    @Test
+    public void reportsExactTotalWhenScanReachesTheEnd() {
+        PartialListResponse<User> page = list(101, 50);
+        assertEquals(25, page.getResources().size());
+        assertEquals(125L, (long) page.getTotalResults());
+    }
+
+    @Test
+    public void reportsNextPageOfTruncatedScan() {
+        PartialListResponse<User> page = list(1, 10);
+        assertEquals(ids(0, 10), idsOf(page));
+        // lower bound startIndex + count: one past the last returned resource
+        assertEquals(11L, (long) page.getTotalResults());
+
+        PartialListResponse<User> next = list(11, 10);
+        assertEquals(ids(10, 10), idsOf(next));
+        assertEquals(21L, (long) next.getTotalResults());
+    }
+
+    @Test
+    public void fillsPagesAcrossScanBatches() {
+        PartialListResponse<User> page = list(46, 10);
+        assertEquals(ids(45, 10), idsOf(page));
+        assertEquals(56L, (long) page.getTotalResults());
+    }
+
+    private PartialListResponse<User> list(long startIndex, int count) {
+        return handler.listFilteredInMemory("TYPE:\"cm:person\"", ContentModel.PROP_USERNAME, true, startIndex, count,
+                filter, nodeRefs -> nodeRefs.stream().map(ListFilteredInMemoryTest::toUser).collect(Collectors.toList()));
+    }
+
+    private static User toUser(NodeRef nodeRef) {
+        int index = Integer.parseInt(nodeRef.getId().substring("user".length()));
+        return User.builder()
+                .id(nodeRef.getId())
+                .userName(nodeRef.getId())
+                .nickName(index % 2 == 0 ? "even" : "odd")
+                .build();
+    }
+
+    private static List<String> idsOf(PartialListResponse<User> page) {
+        return page.getResources().stream().map(user -> user.getId().orElse(null)).collect(Collectors.toList());
+    }
+
+    /**
+     * Ids of the matched users from the 0-based match {@code first} on.
+     */
+    private static List<String> ids(int first, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            ids.add("user" + 2 * i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,132 @@
+package lt.jr.alfresco.scim.api.services;
+
+import lt.jr.alfresco.scim.api.model.ChangeEntry;
+import lt.jr.alfresco.scim.api.model.ChangePage;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChangeLogServiceImplTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Mock
+    private AttributeService attributeService;
+    @Mock
+    private TransactionService transactionService;
+    @InjectMocks
+    private ChangeLogServiceImpl changeLogService;
+
+    /**
+     * Change log entries by bucket and node id.
+     */
+    private final Map<Long, Map<String, Serializable>> buckets = new HashMap<>();
+    private final AtomicInteger entriesRead = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        setField("retentionHours", 24);
+        setField("safetyLagMs", 1000L);
+        RetryingTransactionHelper retryingTransactionHelper = mock(RetryingTransactionHelper.class);
+        lenient().when(retryingTransactionHelper.doInTransaction(any(), anyBoolean(), anyBoolean()))
+                .thenAnswer(invocation -> invocation.<RetryingTransactionCallback<?>>getArgument(0).execute());
+        lenient().when(transactionService.getRetryingTransactionHelper()).thenReturn(retryingTransactionHelper);
+        doAnswer(invocation -> {
+            AttributeQueryCallback callback = invocation.getArgument(0);
+            Serializable rootKey = invocation.getArgument(1);
+            Long bucket = invocation.getArgument(2);
+            buckets.getOrDefault(bucket, new HashMap<>()).forEach((id, value) -> {
+                entriesRead.incrementAndGet();
+                callback.handleAttribute(0L, value, new Serializable[] {rootKey, bucket, id});
+            });
+            return null;
+        }).when(attributeService).getAttributes(any(AttributeQueryCallback.class), any(), any());
+    }
+
+    @Test
+    public void pagesThroughABucketReadingItOnce() {
+        long base = (System.currentTimeMillis() / HOUR - 1) * HOUR;
+        for (int i = 0; i < 1000; i++) {
+            addEntry(base, "user" + i, base + i);
+        }
+
+        List<String> returned = new ArrayList<>();
+        long since = base - 1;
+        int pages = 0;
+        ChangePage page;
+        do {
+            page = changeLogService.getChanges(since, 100);
+            returned.addAll(page.getChanges().stream().map(ChangeEntry::getId).collect(Collectors.toList()));
+            since = page.getWatermark();
+            pages++;
+        } while (!page.getChanges().isEmpty() && pages < 20);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add("user" + i);
+        }
+        assertEquals(expected, returned);
+        assertEquals(11, pages);
+        assertEquals(1000, entriesRead.get());
+    }
+
+    @Test
+    public void neverSplitsEntriesSharingATimestamp() {
+        long base = (System.currentTimeMillis() / HOUR - 1) * HOUR;
+        for (int i = 0; i < 5; i++) {
+            addEntry(base, "user" + i, base + 10);
+        }
+        addEntry(base, "user5", base + 20);
+
+        ChangePage page = changeLogService.getChanges(base, 3);
+        assertEquals(5, page.getChanges().size());
+        assertEquals(base + 10, page.getWatermark());
+
+        page = changeLogService.getChanges(page.getWatermark(), 3);
+        assertEquals(1, page.getChanges().size());
+        assertEquals("user5", page.getChanges().get(0).getId());
+        assertTrue(page.getWatermark() > base + 20);
+    }
+
+    private void addEntry(long bucketStart, String id, long timestamp) {
+        HashMap<String, Serializable> value = new HashMap<>();
+        value.put("resourceType", "User");
+        value.put("type", ChangeEntry.Type.MODIFIED.name());
+        value.put("timestamp", timestamp);
+        buckets.computeIfAbsent(bucketStart / HOUR, bucket -> new HashMap<>()).put(id, value);
+    }
+
+    private void setField(String name, Object value) throws ReflectiveOperationException {
+        Field field = ChangeLogServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(changeLogService, value);
+    }
+}
@@ -0,0 +1,111 @@
+package lt.jr.alfresco.scim.api.webscripts;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotentRequestsTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    public void keysRequestsByClientMethodUriAndBody() {
+        String key = IdempotentRequests.replayKey("idp", "PUT", "/Users/1", "{\"userName\":\"jdoe\"}");
+        assertEquals(key, IdempotentRequests.replayKey("idp", "PUT", "/Users/1", "{\"userName\":\"jdoe\"}"));
+        assertNotEquals(key, IdempotentRequests.replayKey("other", "PUT", "/Users/1", "{\"userName\":\"jdoe\"}"));
+        assertNotEquals(key, IdempotentRequests.replayKey("idp", "POST", "/Users/1", "{\"userName\":\"jdoe\"}"));
+        assertNotEquals(key, IdempotentRequests.replayKey("idp", "PUT", "/Users/2", "{\"userName\":\"jdoe\"}"));
+        assertNotEquals(key, IdempotentRequests.replayKey("idp", "PUT", "/Users/1", "{\"userName\":\"jroe\"}"));
+        assertEquals(IdempotentRequests.replayKey("idp", "PUT", "/Users/1", null),
+                IdempotentRequests.replayKey("idp", "PUT", "/Users/1", ""));
+    }
+
+    @Test
+    public void readsResourceIdAndVersion() throws IOException {
+        JsonNode resource = json("{\"id\":\"1\",\"meta\":{\"version\":\"W/\\\"42\\\"\"}}");
+        assertEquals(Optional.of("1"), IdempotentRequests.getResourceId(resource));
+        assertEquals(Optional.of("W/\"42\""), IdempotentRequests.getVersion(resource));
+
+        JsonNode error = json("{\"id\":\"\",\"status\":\"404\"}");
+        assertFalse(IdempotentRequests.getResourceId(error).isPresent());
+        assertFalse(IdempotentRequests.getVersion(error).isPresent());
+    }
+
+    @Test
+    public void ignoresAttributesClientsCanNotChange() throws IOException {
+        JsonNode stored = json("{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"],\"id\":\"1\","
+                + "\"userName\":\"jdoe\",\"meta\":{\"version\":\"W/\\\"42\\\"\"},\"groups\":[{\"value\":\"g1\"}]}");
+        assertTrue(IdempotentRequests.isUnchanged("{\"userName\":\"jdoe\",\"nickName\":null}", stored));
+        assertFalse(IdempotentRequests.isUnchanged("{\"userName\":\"jroe\"}", stored));
+        assertFalse(IdempotentRequests.isUnchanged("{\"userName\":\"jdoe\",\"title\":\"Dr\"}", stored));
+    }
+
+    @Test
+    public void comparesOnlyTheAttributesOfTheBody() {
+        assertEquals(Optional.of("name,userName"), IdempotentRequests.getComparedAttributes(
+                "{\"schemas\":[],\"id\":\"1\",\"userName\":\"jdoe\",\"name\":{\"givenName\":\"J\"}}",
+                Collections.emptySet()));
+        assertEquals(Optional.of("displayName,members"), IdempotentRequests.getComparedAttributes(
+                "{\"displayName\":\"staff\"}", IdempotentRequests.GROUP_REPLACED_ATTRIBUTES));
+        assertFalse(IdempotentRequests.getComparedAttributes("{\"userName\":\"jdoe\","
+                + "\"urn:ietf:params:scim:schemas:extension:enterprise:2.0:User\":{}}", Collections.emptySet()).isPresent());
+        assertFalse(IdempotentRequests.getComparedAttributes("[]", Collections.emptySet()).isPresent());
+    }
+
+    @Test
+    public void decidesWithoutTheResourceWhenABodyAlwaysChangesIt() {
+        assertTrue(IdempotentRequests.mayBeUnchanged("{\"userName\":\"jdoe\"}"));
+        assertFalse(IdempotentRequests.mayBeUnchanged("{\"userName\":\"jdoe\",\"password\":\"secret\"}"));
+        assertFalse(IdempotentRequests.mayBeUnchanged("{\"userName\":"));
+    }
+
+    @Test
+    public void neverTreatsPasswordChangesAsUnchanged() throws IOException {
+        JsonNode stored = json("{\"userName\":\"jdoe\"}");
+        assertFalse(IdempotentRequests.isUnchanged("{\"userName\":\"jdoe\",\"password\":\"secret\"}", stored));
+    }
+
+    @Test
+    public void rejectsBodiesThatAreNotResources() throws IOException {
+        JsonNode stored = json("{\"userName\":\"jdoe\"}");
+        assertFalse(IdempotentRequests.isUnchanged("{\"userName\":", stored));
+        assertFalse(IdempotentRequests.isUnchanged("[]", stored));
+        assertFalse(IdempotentRequests.isUnchanged(null, stored));
+    }
+
+    @Test
+    public void comparesMembersByValue() throws IOException {
+        JsonNode stored = json("{\"displayName\":\"staff\",\"members\":["
+                + "{\"value\":\"1\",\"display\":\"jdoe\",\"$ref\":\"/Users/1\"},{\"value\":\"2\",\"type\":\"User\"}]}");
+        assertTrue(IdempotentRequests.isUnchanged(
+                "{\"displayName\":\"staff\",\"members\":[{\"value\":\"2\"},{\"value\":\"1\"},{\"value\":\"1\"}]}", stored));
+        assertFalse(IdempotentRequests.isUnchanged(
+                "{\"displayName\":\"staff\",\"members\":[{\"value\":\"1\"}]}", stored));
+    }
+
+    @Test
+    public void comparesMultiValuedAttributesRegardlessOfOrder() throws IOException {
+        JsonNode stored = json("{\"userName\":\"jdoe\",\"emails\":["
+                + "{\"value\":\"a@example.com\",\"primary\":true},{\"value\":\"b@example.com\"}]}");
+        assertTrue(IdempotentRequests.isUnchanged("{\"userName\":\"jdoe\",\"emails\":["
+                + "{\"value\":\"b@example.com\"},{\"primary\":true,\"value\":\"a@example.com\"}]}", stored));
+        assertFalse(IdempotentRequests.isUnchanged("{\"userName\":\"jdoe\",\"emails\":["
+                + "{\"value\":\"b@example.com\",\"primary\":true},{\"value\":\"a@example.com\"}]}", stored));
+        assertFalse(IdempotentRequests.isUnchanged("{\"userName\":\"jdoe\",\"emails\":["
+                + "{\"value\":\"a@example.com\",\"primary\":true},{\"value\":\"b@example.com\"},"
+                + "{\"value\":\"b@example.com\"}]}", stored));
+    }
+
+    private static JsonNode json(String json) throws IOException {
+        return OBJECT_MAPPER.readTree(json);
+    }
+}